@@ -0,0 +1,265 @@
+package gitlet.bench;
+
+import gitlet.Repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Throughput of each gitlet command on a Fixture, one command per
+ *  operation: the repository is opened, the command run and the repository
+ *  saved, as "java gitlet.Main" would, less the JVM startup.  Run with
+ *  "-prof gc" for the allocation rate.
+ *
+ *  Commands that only read, or that are undone by the next operation
+ *  (checkout of a branch and reset alternate between two places), run on
+ *  the one Fixture built for the trial.  commit and merge run on a fresh
+ *  copy of it each time, and fetch and push between it and a fresh, empty
+ *  repository; the copying is not timed.
+ *
+ *  @author Luna, Tian
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandBenchmarks {
+
+    /** Where printing commands print. */
+    private static final PrintStream NOWHERE = new PrintStream(OutputStream.nullOutputStream());
+
+    /** The Fixture for the trial, of the size given by the parameters. */
+    @State(Scope.Benchmark)
+    public static class Shared {
+        @Param({"100", "1000"})
+        public int files;
+
+        @Param({"1024"})
+        public int fileSize;
+
+        @Param({"20", "200"})
+        public int depth;
+
+        @Param({"4"})
+        public int branches;
+
+        Fixture fixture;
+
+        /** A file that no branch changes, changed by addFile and restored by checkout. */
+        String file;
+
+        @Setup(Level.Trial)
+        public void build() throws IOException {
+            fixture = Fixture.build(tempDir("fixture"), files, fileSize, depth, branches);
+            file = Fixture.name(branches);
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() {
+            Fixture.delete(fixture.dir);
+        }
+    }
+
+    /** A fresh copy of the Fixture for each operation. */
+    @State(Scope.Thread)
+    public static class Copy {
+        File dir;
+
+        @Setup(Level.Invocation)
+        public void copy(Shared shared) throws IOException {
+            dir = fresh(dir, shared);
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() {
+            Fixture.delete(dir);
+        }
+    }
+
+    /** A fresh copy of the Fixture with one changed file staged. */
+    @State(Scope.Thread)
+    public static class Staged {
+        File dir;
+
+        @Setup(Level.Invocation)
+        public void stage(Shared shared) throws IOException {
+            dir = fresh(dir, shared);
+            Files.writeString(new File(dir, shared.file).toPath(), "staged\n");
+            Repository repo = Repository.open(dir);
+            repo.addFile(shared.file);
+            repo.save();
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() {
+            Fixture.delete(dir);
+        }
+    }
+
+    /** A fresh, empty repository for each operation, which the Fixture
+     *  knows as the remote "bench" and which knows the Fixture as "origin". */
+    @State(Scope.Thread)
+    public static class Empty {
+        File dir;
+
+        @Setup(Level.Trial)
+        public void register(Shared shared) throws IOException {
+            dir = tempDir("empty");
+            Repository repo = Repository.open(shared.fixture.dir);
+            repo.addremote("bench", gitletDir(dir));
+            repo.save();
+        }
+
+        @Setup(Level.Invocation)
+        public void init(Shared shared) {
+            Fixture.delete(dir);
+            Repository repo = Fixture.empty(dir);
+            repo.addremote("origin", gitletDir(shared.fixture.dir));
+            repo.save();
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() {
+            Fixture.delete(dir);
+        }
+    }
+
+    /** True when the last checkout or reset went to b0 or the first commit. */
+    private boolean away;
+
+    @Setup(Level.Trial)
+    public void change(Shared shared) throws IOException {
+        Files.writeString(new File(shared.fixture.dir, shared.file).toPath(), "changed\n");
+    }
+
+    @Benchmark
+    public void addFile(Shared shared) {
+        Repository repo = Repository.open(shared.fixture.dir);
+        repo.addFile(shared.file);
+        repo.save();
+    }
+
+    @Benchmark
+    public void commit(Staged staged) {
+        Repository repo = Repository.open(staged.dir);
+        repo.commit("bench");
+        repo.save();
+    }
+
+    @Benchmark
+    public void status(Shared shared) {
+        Repository repo = Repository.open(shared.fixture.dir);
+        repo.status(NOWHERE);
+        repo.save();
+    }
+
+    @Benchmark
+    public void checkoutFile(Shared shared) {
+        Repository repo = Repository.open(shared.fixture.dir);
+        repo.checkout("--", shared.file);
+        repo.save();
+    }
+
+    @Benchmark
+    public void checkoutCommitFile(Shared shared) {
+        Repository repo = Repository.open(shared.fixture.dir);
+        repo.checkout(shared.fixture.first, "--", shared.file);
+        repo.save();
+    }
+
+    @Benchmark
+    public void checkoutBranch(Shared shared) {
+        Repository repo = Repository.open(shared.fixture.dir);
+        away = !away;
+        repo.checkout(away ? "b0" : "master");
+        repo.save();
+    }
+
+    @Benchmark
+    public void reset(Shared shared) {
+        Repository repo = Repository.open(shared.fixture.dir);
+        away = !away;
+        repo.reset(away ? shared.fixture.first : shared.fixture.head);
+        repo.save();
+    }
+
+    @Benchmark
+    public void merge(Copy copy) {
+        Repository repo = Repository.open(copy.dir);
+        repo.merge("b0");
+        repo.save();
+    }
+
+    @Benchmark
+    public void printLog(Shared shared) {
+        Repository repo = Repository.open(shared.fixture.dir);
+        repo.printLog(NOWHERE);
+        repo.save();
+    }
+
+    @Benchmark
+    public void printAllLog(Shared shared) {
+        Repository repo = Repository.open(shared.fixture.dir);
+        repo.printAllLog(NOWHERE);
+        repo.save();
+    }
+
+    @Benchmark
+    public void find(Shared shared, Blackhole bh) {
+        Repository repo = Repository.open(shared.fixture.dir);
+        bh.consume(repo.find("commit 1"));
+        repo.save();
+    }
+
+    @Benchmark
+    public void fetch(Empty empty) {
+        Repository repo = Repository.open(empty.dir);
+        repo.fetch("origin", "master");
+        repo.save();
+    }
+
+    @Benchmark
+    public void push(Shared shared, Empty empty) {
+        Repository repo = Repository.open(shared.fixture.dir);
+        repo.push("bench", "master");
+        repo.save();
+    }
+
+    /** Return DIR, or a new directory if it is null, holding a fresh copy of SHARED's Fixture. */
+    private static File fresh(File dir, Shared shared) throws IOException {
+        if (dir == null) {
+            dir = tempDir("copy");
+        }
+        Fixture.delete(dir);
+        Fixture.copy(shared.fixture.dir, dir);
+        return dir;
+    }
+
+    private static File tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory("gitlet-bench-" + prefix).toFile();
+    }
+
+    private static String gitletDir(File dir) {
+        return new File(dir, ".gitlet").getAbsolutePath();
+    }
+}
@@ -0,0 +1,169 @@
+package gitlet.bench;
+
+import gitlet.Repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/** A synthetic repository for the benchmarks, built by running the
+ *  commands on a directory.
+ *
+ *  master is a first commit of FILES files of SIZE bytes each, followed by
+ *  DEPTH - 1 commits that each change about one file in a hundred.  Each of
+ *  the BRANCHES branches b0, b1, ... then forks from master's head and
+ *  changes its own file, and master takes one more commit changing the last
+ *  file, so merging any branch into master is a real merge without
+ *  conflicts.  The working directory is left on master.  The contents are
+ *  the same on every run.
+ *
+ *  @author Luna, Tian
+ */
+final class Fixture {
+
+    /** Bytes per line of a generated file. */
+    private static final int LINE = 64;
+
+    /** The working directory of the repository. */
+    final File dir;
+
+    /** The first commit with files in it, and master's head. */
+    final String first, head;
+
+    private Fixture(File dir, String first, String head) {
+        this.dir = dir;
+        this.first = first;
+        this.head = head;
+    }
+
+    /** Build the repository described above in the empty directory DIR. */
+    static Fixture build(File dir, int files, int size, int depth, int branches) {
+        if (files < 2 || depth < 1 || branches > files - 2) {
+            throw new IllegalArgumentException("no such fixture");
+        }
+        Random random = new Random(61);
+        Repository repo = Repository.init(dir);
+        repo.save();
+        for (int i = 0; i < files; i++) {
+            write(file(dir, i), contents(random, size));
+            repo.addFile(name(i));
+        }
+        commit(repo, "commit 0");
+        String first = repo.currCom().getSha1();
+
+        int churn = Math.max(1, files / 100);
+        for (int c = 1; c < depth; c++) {
+            for (int k = 0; k < churn; k++) {
+                change(repo, dir, random, random.nextInt(files));
+            }
+            commit(repo, "commit " + c);
+        }
+        for (int b = 0; b < branches; b++) {
+            repo.addBranch("b" + b);
+            repo.checkout("b" + b);
+            repo.save();
+            change(repo, dir, random, b);
+            commit(repo, "branch " + b);
+            repo.checkout("master");
+            repo.save();
+        }
+        if (branches > 0) {
+            change(repo, dir, random, files - 1);
+            commit(repo, "after branches");
+        }
+        return new Fixture(dir, first, repo.currCom().getSha1());
+    }
+
+    /** Return a new, empty repository in DIR, creating DIR if need be. */
+    static Repository empty(File dir) {
+        dir.mkdirs();
+        Repository repo = Repository.init(dir);
+        repo.save();
+        return repo;
+    }
+
+    /** Rewrite one line of file I of REPO, in DIR, and stage it. */
+    private static void change(Repository repo, File dir, Random random, int i) {
+        File f = file(dir, i);
+        byte[] contents = read(f);
+        int line = random.nextInt(Math.max(1, contents.length / LINE)) * LINE;
+        for (int k = line; k < Math.min(contents.length, line + LINE - 1); k++) {
+            contents[k] = letter(random);
+        }
+        write(f, contents);
+        repo.addFile(name(i));
+    }
+
+    private static void commit(Repository repo, String message) {
+        repo.commit(message);
+        repo.save();
+    }
+
+    /** Return the name of the Ith file. */
+    static String name(int i) {
+        return String.format("f%06d.txt", i);
+    }
+
+    private static File file(File dir, int i) {
+        return new File(dir, name(i));
+    }
+
+    /** Return SIZE bytes of lines of random letters. */
+    private static byte[] contents(Random random, int size) {
+        byte[] result = new byte[size];
+        for (int k = 0; k < size; k++) {
+            result[k] = k % LINE == LINE - 1 ? (byte) '\n' : letter(random);
+        }
+        return result;
+    }
+
+    private static byte letter(Random random) {
+        return (byte) ('a' + random.nextInt(26));
+    }
+
+    private static byte[] read(File f) {
+        try {
+            return Files.readAllBytes(f.toPath());
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+
+    private static void write(File f, byte[] contents) {
+        try {
+            Files.write(f.toPath(), contents);
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+
+    /** Copy the directory tree FROM to TO, which must not exist. */
+    static void copy(File from, File to) {
+        Path src = from.toPath(), dest = to.toPath();
+        try (Stream<Path> paths = Files.walk(src)) {
+            for (Path p : (Iterable<Path>) paths::iterator) {
+                Files.copy(p, dest.resolve(src.relativize(p)), StandardCopyOption.COPY_ATTRIBUTES);
+            }
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+
+    /** Delete the directory tree DIR, if there is one. */
+    static void delete(File dir) {
+        if (dir == null || !dir.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+}
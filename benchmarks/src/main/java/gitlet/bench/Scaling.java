@@ -0,0 +1,272 @@
+package gitlet.bench;
+
+import gitlet.Generator;
+import gitlet.GitletException;
+import gitlet.Repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/** Checks that commands scale as they should:
+ *
+ *      java -cp benchmarks.jar gitlet.bench.Scaling [--quick] [NAME...]
+ *
+ *  Each Case runs one command on Generator repositories of increasing size,
+ *  takes the median time at each size, and fits the exponent k of
+ *  time ~ size^k.  A case fails if k exceeds its declared bound by more
+ *  than TOLERANCE, or if the command fails outright.  The exit code is the
+ *  number of failed cases.  --quick leaves out the largest size; NAMEs
+ *  pick cases by name.  Besides the linear history most cases use, merge
+ *  runs on criss-crossed branches, whose merges have two merge bases, and
+ *  merge-branches and checkout-branch on four branches forked from one
+ *  commit.
+ *
+ *  @author Luna, Tian
+ */
+public class Scaling {
+
+    /** How far above its bound a measured exponent may be. */
+    private static final double TOLERANCE = 0.35;
+
+    /** Untimed and timed runs at each size. */
+    private static final int WARMUP = 2, RUNS = 5;
+
+    /** Sizes for cases over commits and over files, up to 10^5 of each.
+     *  The smallest history is already larger than Commit's cache.  10^6
+     *  commits are left out on purpose: generating them takes minutes for
+     *  each shape, and three sizes a factor of four apart already pin the
+     *  exponent down. */
+    private static final int[] COMMITS = {6250, 25000, 100000};
+    private static final int[] FILES = {6250, 25000, 100000};
+
+    private static final PrintStream NOWHERE = new PrintStream(OutputStream.nullOutputStream());
+
+    /** A command run on repositories of growing size, REPO, whose working
+     *  directory is DIR. */
+    private interface Command {
+        void run(Repository repo, File dir) throws IOException;
+    }
+
+    private static class Case {
+        final String name;
+        /** What grows, for the report. */
+        final String over;
+        /** The largest exponent allowed. */
+        final double bound;
+        final int[] sizes;
+        /** The repository of each size. */
+        final IntFunction<Generator> repo;
+        /** True if the command changes the repository, so each run gets a copy. */
+        final boolean changes;
+        final Command command;
+
+        Case(String name, String over, double bound, int[] sizes,
+             IntFunction<Generator> repo, boolean changes, Command command) {
+            this.name = name;
+            this.over = over;
+            this.bound = bound;
+            this.sizes = sizes;
+            this.repo = repo;
+            this.changes = changes;
+            this.command = command;
+        }
+    }
+
+    private static final List<Case> CASES = List.of(
+        new Case("log", "commits", 1, COMMITS, Scaling::linear, false,
+            (repo, dir) -> repo.printLog(NOWHERE)),
+        new Case("global-log", "commits", 1, COMMITS, Scaling::linear, false,
+            (repo, dir) -> repo.printAllLog(NOWHERE)),
+        new Case("find", "commits", 1, COMMITS, Scaling::linear, false,
+            (repo, dir) -> repo.find("commit 1")),
+        new Case("merge", "commits", 1, COMMITS, Scaling::crissCross, true,
+            (repo, dir) -> {
+                try {
+                    repo.merge("b1");
+                } catch (GitletException excp) {
+                    if (!excp.getMessage().equals("Encountered a merge conflict.")) {
+                        throw excp;
+                    }
+                }
+            }),
+        new Case("merge-branches", "commits", 1, COMMITS, Scaling::branches, true,
+            (repo, dir) -> repo.merge("b1")),
+        new Case("checkout-branch", "commits", 0, COMMITS, Scaling::branches, true,
+            (repo, dir) -> repo.checkout("b2")),
+        new Case("status", "commits", 0, COMMITS, Scaling::linear, false,
+            (repo, dir) -> repo.status(NOWHERE)),
+        new Case("add", "commits", 0, COMMITS, Scaling::linear, true,
+            (repo, dir) -> {
+                Files.writeString(new File(dir, "f000000.txt").toPath(), "changed\n");
+                repo.addFile("f000000.txt");
+            }),
+        new Case("checkout-file", "commits", 0, COMMITS, Scaling::linear, false,
+            (repo, dir) -> repo.checkout("--", "f000000.txt")),
+        new Case("checkout-short", "commits", 0, COMMITS, Scaling::linear, false,
+            (repo, dir) -> repo.checkout(repo.currCom().getSha1().substring(0, 8),
+                "--", "f000000.txt")),
+        new Case("status-files", "files", 1, FILES, Scaling::wide, false,
+            (repo, dir) -> repo.status(NOWHERE)),
+        new Case("commit-files", "files", 1, FILES, Scaling::wide, true,
+            (repo, dir) -> {
+                Files.writeString(new File(dir, "f000000.txt").toPath(), "changed\n");
+                repo.addFile("f000000.txt");
+                repo.commit("changed");
+            })
+    );
+
+    /** A history of N commits on master over ten files that never change. */
+    private static Generator linear(int n) {
+        Generator g = new Generator();
+        g.commits = n;
+        g.files = 10;
+        g.churn = 0;
+        return g;
+    }
+
+    /** N commits criss-crossing between master and b1, each changing a file. */
+    private static Generator crissCross(int n) {
+        Generator g = linear(n);
+        g.shape = Generator.Shape.CRISS_CROSS;
+        g.churn = 1;
+        return g;
+    }
+
+    /** N commits taken in turn by master, b1, b2 and b3, forked from the
+     *  first commit, each changing a file of its own branch. */
+    private static Generator branches(int n) {
+        Generator g = linear(n);
+        g.shape = Generator.Shape.BRANCHES;
+        g.branches = 4;
+        g.churn = 1;
+        return g;
+    }
+
+    /** Two commits of N small files. */
+    private static Generator wide(int n) {
+        Generator g = new Generator();
+        g.commits = 2;
+        g.files = n;
+        g.size = 64;
+        return g;
+    }
+
+    /** Working directories of generated repositories, by case kind and size. */
+    private final Map<String, File> repos = new HashMap<>();
+
+    private final File root;
+
+    private Scaling(File root) {
+        this.root = root;
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean quick = false;
+        List<String> names = new ArrayList<>();
+        for (String a : args) {
+            if (a.equals("--quick")) {
+                quick = true;
+            } else {
+                names.add(a);
+            }
+        }
+        File root = Files.createTempDirectory("gitlet-scaling").toFile();
+        int failed = 0;
+        try {
+            Scaling suite = new Scaling(root);
+            for (Case c : CASES) {
+                if (names.isEmpty() || names.contains(c.name)) {
+                    failed += suite.check(c, quick) ? 0 : 1;
+                }
+            }
+        } finally {
+            Fixture.delete(root);
+        }
+        System.out.println(failed == 0 ? "All cases within bounds." : failed + " case(s) failed.");
+        System.exit(failed);
+    }
+
+    /** Run case C and report it, returning true iff it passed. */
+    private boolean check(Case c, boolean quick) {
+        int[] sizes = quick ? Arrays.copyOf(c.sizes, c.sizes.length - 1) : c.sizes;
+        double[] times = new double[sizes.length];
+        try {
+            for (int i = 0; i < sizes.length; i++) {
+                times[i] = median(c, sizes[i]);
+            }
+        } catch (Throwable excp) {
+            System.out.printf("%-14s FAIL  %s%n", c.name, excp);
+            return false;
+        }
+        double k = exponent(sizes, times);
+        boolean ok = k <= c.bound + TOLERANCE;
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < sizes.length; i++) {
+            row.append(String.format("  %d %s: %.2f ms", sizes[i], c.over, times[i]));
+        }
+        System.out.printf("%-14s %s  k = %.2f, bound %.0f%s%n", c.name, ok ? "ok  " : "FAIL",
+                k, c.bound, row);
+        return ok;
+    }
+
+    /** Return the median time in milliseconds of C's command at SIZE. */
+    private double median(Case c, int size) throws IOException {
+        File dir = generated(c, size);
+        double[] runs = new double[RUNS];
+        for (int r = -WARMUP; r < RUNS; r++) {
+            File target = dir;
+            if (c.changes) {
+                target = new File(root, "scratch");
+                Fixture.delete(target);
+                Fixture.copy(dir, target);
+            }
+            long start = System.nanoTime();
+            Repository repo = Repository.open(target);
+            c.command.run(repo, target);
+            repo.save();
+            long took = System.nanoTime() - start;
+            if (r >= 0) {
+                runs[r] = took / 1e6;
+            }
+        }
+        Arrays.sort(runs);
+        return runs[RUNS / 2];
+    }
+
+    /** Return the working directory of C's repository of SIZE, generating it
+     *  the first time any case asks for it. */
+    private File generated(Case c, int size) {
+        Generator g = c.repo.apply(size);
+        String key = g.shape + "-" + g.commits + "-" + g.files + "-" + g.churn + "-" + g.size;
+        File dir = repos.get(key);
+        if (dir == null) {
+            dir = new File(root, key);
+            g.generate(dir);
+            repos.put(key, dir);
+        }
+        return dir;
+    }
+
+    /** Return the least-squares slope of log TIMES against log SIZES. */
+    static double exponent(int[] sizes, double[] times) {
+        int n = sizes.length;
+        double sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (int i = 0; i < n; i++) {
+            double x = Math.log(sizes[i]), y = Math.log(Math.max(times[i], 1e-3));
+            sx += x;
+            sy += y;
+            sxx += x * x;
+            sxy += x * y;
+        }
+        return (n * sxy - sx * sy) / (n * sxx - sx * sx);
+    }
+}
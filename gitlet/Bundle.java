@@ -0,0 +1,297 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The history of a branch in one file, for repositories that cannot reach
+ *  each other as remotes: "bundle create FILE BRANCH" writes it, and
+ *  "bundle unbundle FILE" reads it into another repository.
+ *
+ *  The file is "GBDL", version, the number of refs, and for each its name
+ *  and the 20-byte id of its commit.  Then come the objects, each a kind
+ *  byte (COMMIT, TREE or BLOB), its 20-byte id, its length and its bytes as
+ *  stored, and then an END byte and the SHA-1 of everything before it.
+ *
+ *  The objects are in topological order: for each commit, parents first,
+ *  the blobs and trees it brings in, each tree after what is under it, and
+ *  then the commit.  It brings in what none of its parents has at the same
+ *  path, so an unchanged directory is skipped by comparing ids, and
+ *  choosing what to write takes memory in proportion to one commit, not
+ *  to the history.  A blob stored as a delta is written as stored only if
+ *  its base is the first parent's version at the same path, which is
+ *  always written before it; otherwise it is written whole.
+ *
+ *  Both ends stream.  create reads each object once and writes the file
+ *  front to back; unbundle reads it once, front to back, into new packs
+ *  (see ObjectStore.Incoming) that only join the repository once the
+ *  checksum at the end has been checked.
+ *
+ *  @author Luna, Tian
+ */
+class Bundle {
+
+    /** Magic number and version of a bundle. */
+    static final int MAGIC = 0x4742444c, VERSION = 1;
+
+    /** Kinds of records. */
+    static final int END = 0, COMMIT = 1, TREE = 2, BLOB = 3;
+
+    /** Commits whose objects are stored between checks on the repository's
+     *  graph, so that its size in memory stays bounded. */
+    private static final int GRAPH_BATCH = 4096;
+
+    /** The repository written from. */
+    private final Repository repo;
+
+    /** Where the bundle goes. */
+    private final DataOutputStream out;
+
+    private Bundle(Repository repo, DataOutputStream out) {
+        this.repo = repo;
+        this.out = out;
+    }
+
+    /** Write commit HEAD of REPO and all of its history to FILE, as the
+     *  ref NAME.  FILE appears whole or not at all. */
+    static void create(Repository repo, File file, String name, String head) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        try {
+            File tmp = File.createTempFile("tmp-", ".bundle", dir);
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-1");
+                try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(tmp.toPath()),
+                                                 Utils.BUFFER_SIZE), md))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(1);
+                    out.writeUTF(name);
+                    out.write(Utils.fromHex(head));
+                    new Bundle(repo, out).writeHistory(head);
+                    out.writeByte(END);
+                    out.flush();
+                    out.write(md.digest());
+                }
+                Utils.fsync(tmp);
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                tmp.delete();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Read the bundle FILE into REPO, and return its refs, name to commit
+     *  id.  Nothing is added to REPO unless the whole bundle is sound. */
+    static Map<String, String> unbundle(Repository repo, File file) {
+        ObjectStore.Incoming commits = repo.commits.incoming();
+        ObjectStore.Incoming trees = repo.trees.incoming();
+        ObjectStore.Incoming blobs = repo.blobs.incoming();
+        Map<String, String> refs = new LinkedHashMap<>();
+        List<String> commitIds = new ArrayList<>();
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            try (DataInputStream in = new DataInputStream(new DigestInputStream(
+                    new BufferedInputStream(Files.newInputStream(file.toPath()),
+                                            Utils.BUFFER_SIZE), md))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw Utils.error("Not a bundle file.");
+                }
+                byte[] id = new byte[Pack.ID_BYTES];
+                for (int n = in.readInt(); n > 0; n -= 1) {
+                    String name = in.readUTF();
+                    in.readFully(id);
+                    refs.put(name, Utils.toHex(id));
+                }
+                for (int kind = in.readUnsignedByte(); kind != END; kind = in.readUnsignedByte()) {
+                    in.readFully(id);
+                    long length = in.readLong();
+                    String hex = Utils.toHex(id);
+                    if (kind == COMMIT) {
+                        commits.add(hex, in, length);
+                        commitIds.add(hex);
+                    } else if (kind == TREE) {
+                        trees.add(hex, in, length);
+                    } else if (kind == BLOB) {
+                        blobs.add(hex, in, length);
+                    } else {
+                        throw Utils.error("Bundle is corrupt.");
+                    }
+                }
+                byte[] expected = md.digest();
+                byte[] sum = new byte[expected.length];
+                in.readFully(sum);
+                if (!Arrays.equals(sum, expected)) {
+                    throw Utils.error("Bundle is corrupt.");
+                }
+            }
+            /* What a tree or commit refers to goes in before it. */
+            blobs.install();
+            trees.install();
+            commits.install();
+        } catch (EOFException excp) {
+            abort(commits, trees, blobs);
+            throw Utils.error("Bundle is corrupt.");
+        } catch (IOException excp) {
+            abort(commits, trees, blobs);
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            abort(commits, trees, blobs);
+            throw new IllegalArgumentException("System does not support SHA-1");
+        } catch (RuntimeException excp) {
+            abort(commits, trees, blobs);
+            throw excp;
+        }
+        record(repo, commitIds);
+        return refs;
+    }
+
+    /** Throw away whatever INCOMING holds. */
+    private static void abort(ObjectStore.Incoming... incoming) {
+        for (ObjectStore.Incoming i : incoming) {
+            i.abort();
+        }
+    }
+
+    /** Add the commits IDS, parents first and now in REPO's store, to its
+     *  commit graph and commit index, a batch at a time. */
+    private static void record(Repository repo, List<String> ids) {
+        for (int from = 0; from < ids.size(); from += GRAPH_BATCH) {
+            List<String> batch = ids.subList(from, Math.min(ids.size(), from + GRAPH_BATCH));
+            List<Commit> read = new ArrayList<>(batch.size());
+            for (String id : batch) {
+                read.add(Commit.read(repo.commits, repo.trees, id));
+            }
+            repo.graph.addAll(batch, read);
+        }
+        repo.commitIndex.addAll(ids);
+    }
+
+    /** Write the objects of HEAD and its ancestors, parents first. */
+    private void writeHistory(String head) throws IOException {
+        CommitGraph graph = repo.graph;
+        BitSet history = graph.ancestorSet(graph.position(head));
+        for (int pos = history.nextSetBit(0); pos >= 0; pos = history.nextSetBit(pos + 1)) {
+            String id = graph.id(pos);
+            Commit c = Commit.read(repo.commits, repo.trees, id);
+            int[] parentPos = graph.parents(pos);
+            Commit[] parents = new Commit[parentPos.length];
+            String[] parentTrees = new String[parentPos.length];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = Commit.read(repo.commits, repo.trees, graph.id(parentPos[i]));
+                if (parents[i].fileMap instanceof PathMap) {
+                    parentTrees[i] = parents[i].tree();
+                }
+            }
+            if (c.fileMap instanceof PathMap) {
+                writeTree(c.tree(), "", parents, parentTrees);
+            } else {
+                for (Map.Entry<String, String> e : c.fileMap.entrySet()) {
+                    writeBlob(e.getValue(), e.getKey(), parents, null);
+                }
+            }
+            writeObject(COMMIT, id, repo.commits);
+        }
+    }
+
+    /** Write tree ID, for the directory PREFIX, and what is under it, unless
+     *  a parent in PARENTS, whose trees for PREFIX are PARENTTREES (null if
+     *  none or not known), already has it. */
+    private void writeTree(String id, String prefix, Commit[] parents, String[] parentTrees)
+            throws IOException {
+        FileMap[] parentEntries = new FileMap[parents.length];
+        for (int i = 0; i < parents.length; i++) {
+            if (id.equals(parentTrees[i])) {
+                return;
+            }
+            if (parentTrees[i] != null) {
+                parentEntries[i] = Tree.read(repo.trees, parentTrees[i]);
+            }
+        }
+        for (Map.Entry<String, String> e : Tree.read(repo.trees, id).entrySet()) {
+            String key = e.getKey();
+            String[] under = new String[parents.length];
+            for (int i = 0; i < parents.length; i++) {
+                under[i] = parentEntries[i] == null ? null : parentEntries[i].get(key);
+            }
+            if (key.endsWith("/")) {
+                writeTree(e.getValue(), prefix + key, parents, under);
+            } else {
+                writeBlob(e.getValue(), prefix + key, parents, under);
+            }
+        }
+        writeObject(TREE, id, repo.trees);
+    }
+
+    /** Write blob ID, at PATH, unless a parent in PARENTS has it there.
+     *  UNDER holds the parents' blobs at PATH as found in their trees, or
+     *  is null, or has nulls, where those are not known. */
+    private void writeBlob(String id, String path, Commit[] parents, String[] under)
+            throws IOException {
+        String firstParents = null;
+        for (int i = 0; i < parents.length; i++) {
+            String theirs = under != null && parents[i].fileMap instanceof PathMap ? under[i]
+                : parents[i].fileMap.get(path);
+            if (id.equals(theirs)) {
+                return;
+            }
+            if (i == 0) {
+                firstParents = theirs;
+            }
+        }
+        String base = repo.blobs.baseOf(id);
+        if (base == null || base.equals(firstParents)) {
+            writeObject(BLOB, id, repo.blobs);
+        } else {
+            writeStored(BLOB, id, repo.blobs);
+        }
+    }
+
+    /** Write object ID of STORE, of kind KIND, as stored, unless it is raw
+     *  and so needs a header. */
+    private void writeObject(int kind, String id, ObjectStore store) throws IOException {
+        if (store.raw(id)) {
+            writeStored(kind, id, store);
+            return;
+        }
+        out.writeByte(kind);
+        out.write(Utils.fromHex(id));
+        out.writeLong(store.rawSize(id));
+        store.writeRaw(id, out);
+    }
+
+    /** Write object ID of STORE, of kind KIND, decoded and then encoded
+     *  with Codec.STORE. */
+    private void writeStored(int kind, String id, ObjectStore store) throws IOException {
+        long length = store.length(id);
+        out.writeByte(kind);
+        out.write(Utils.fromHex(id));
+        out.writeLong(Codec.HEADER + length);
+        Codec.STORE.open(out, length, 0);
+        try (InputStream in = store.open(id)) {
+            Utils.copy(in, out, length);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** How the contents of a stored object are encoded.  Every object written
+ *  by an ObjectStore starts with a header: "GOBJ", the codec's id byte and
+ *  the length of the decoded contents.  Objects from before the header
+ *  existed are raw contents and are read as they are; as raw contents
+ *  may start with what looks like a header, the repository's core.format
+ *  says whether there can be any (see ObjectStore.codec).
+ *
+ *  To add a codec, add a constant with a new id; old objects keep the id
+ *  they were written with.
+ *
+ *  @author Luna, Tian
+ */
+enum Codec {
+
+    /** Contents stored as they are.  Copying them out needs no decoding. */
+    STORE(0) {
+        @Override
+        OutputStream encoder(OutputStream out, int level) {
+            return out;
+        }
+
+        @Override
+        InputStream decoder(InputStream in) {
+            return in;
+        }
+    },
+
+    /** Contents compressed with zlib. */
+    DEFLATE(1) {
+        @Override
+        OutputStream encoder(OutputStream out, int level) {
+            return deflater(out, level);
+        }
+
+        @Override
+        InputStream decoder(InputStream in) {
+            return inflater(in);
+        }
+    },
+
+    /** A Delta against another object, its base.  What follows the header
+     *  is zlib-compressed: the length of the delta chain up to and including
+     *  this object, as one byte, the base's 20-byte id, then the delta.
+     *  Only an ObjectStore, which can find the base, can decode it. */
+    DELTA(2) {
+        @Override
+        OutputStream encoder(OutputStream out, int level) {
+            return deflater(out, level);
+        }
+
+        @Override
+        InputStream decoder(InputStream in) {
+            return inflater(in);
+        }
+    };
+
+    /** Return a stream that compresses onto OUT at LEVEL. */
+    private static OutputStream deflater(OutputStream out, int level) {
+        Deflater deflater = new Deflater(level);
+        return new DeflaterOutputStream(out, deflater, Utils.BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                deflater.end();
+            }
+        };
+    }
+
+    /** Return a stream that decompresses IN. */
+    private static InputStream inflater(InputStream in) {
+        Inflater inflater = new Inflater();
+        return new InflaterInputStream(in, inflater, Utils.BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inflater.end();
+            }
+        };
+    }
+
+    /** Magic number at the start of every encoded object. */
+    static final int MAGIC = 0x474f424a;
+
+    /** Length of the header: magic, codec id and decoded length. */
+    static final int HEADER = 4 + 1 + 8;
+
+    /** The id byte written in the header. */
+    final int id;
+
+    Codec(int id) {
+        this.id = id;
+    }
+
+    /** Return a stream that encodes what is written to it onto OUT.
+     *  Closing it closes OUT. */
+    abstract OutputStream encoder(OutputStream out, int level);
+
+    /** Return a stream that decodes IN.  Closing it closes IN. */
+    abstract InputStream decoder(InputStream in);
+
+    /** Return the codec whose id is ID, or null. */
+    static Codec byId(int id) {
+        for (Codec c : values()) {
+            if (c.id == id) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    /** Return the codec called NAME, ignoring case, for writing new objects
+     *  with.  DELTA is not one: a delta needs a base, which only writeDelta
+     *  picks.  Throws a GitletException for anything but STORE or DEFLATE. */
+    static Codec byName(String name) {
+        String upper = name.trim().toUpperCase(Locale.ROOT);
+        if (upper.equals(STORE.name())) {
+            return STORE;
+        } else if (upper.equals(DEFLATE.name())) {
+            return DEFLATE;
+        }
+        throw Utils.error("Unknown codec in core.codec: %s.", name.trim());
+    }
+
+    /** Write the header for contents of LENGTH bytes to OUT, then return a
+     *  stream that encodes onto OUT at compression LEVEL. */
+    OutputStream open(OutputStream out, long length, int level) throws IOException {
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeByte(id);
+        header.writeLong(length);
+        header.flush();
+        return encoder(out, level);
+    }
+
+    /** Return the codec named in the header of the SIZE-byte object held
+     *  in HEADER, or null if it has no valid header. */
+    static Codec of(byte[] header, long size) {
+        if (header.length < HEADER || size < HEADER) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            Codec codec = byId(in.readUnsignedByte());
+            long length = in.readLong();
+            if (codec == null || length < 0
+                    || (codec == STORE && length != size - HEADER)) {
+                return null;
+            }
+            return codec;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Garbage collection: "gc" deletes the commits, trees and blobs that
+ *  nothing refers to, such as those left behind by reset and rm-branch.
+ *
+ *  It marks, then sweeps.  The roots are the commits at every branch,
+ *  remote and bundle ones included, the blobs staged for addition, and
+ *  every object written within the grace period, gc.pruneExpire seconds
+ *  (two weeks unless set; see Settings).  Marking follows commits to
+ *  their parents through the CommitGraph, whose positions number them
+ *  densely, and commits to their trees and blobs; the trees and blobs are
+ *  numbered by their place in their store's sorted ids.  Each kind of
+ *  object gets a BitSet of what is live.  A blob stored as a delta keeps
+ *  its base alive, and a tree already marked is not walked again, so
+ *  marking reads each live object once.  Then the graph and commit index
+ *  forget the dead commits, and each ObjectStore deletes its dead loose
+ *  objects and writes its packs again without theirs.
+ *
+ *  Commands may run alongside.  What add or commit writes, or finds
+ *  already stored and so freshens, is new, and is kept with what it
+ *  refers to; an object is only deleted if it is still older than the
+ *  grace period just before it goes.  Each object has its own age, as a
+ *  pack records when each of its objects was written and repack and
+ *  prune keep those times, so garbage grows no younger for being packed
+ *  again, and storing one object again freshens only it.  A loose object
+ *  that fetch or push hard-linked from another repository shares its
+ *  file, and its modification time, with that one; its age here is taken
+ *  from the link instead (its change time), and freshening it writes a
+ *  copy of its own, so neither repository's gc sees the other's times.
+ *  The grace period is what protects a command between writing objects
+ *  and moving a branch or the stage to them, so setting it to 0 is only
+ *  safe while nothing else runs.  Only
+ *  one gc runs at a time.  Objects in alternates are never touched, and
+ *  repositories that use this one as an alternate are not consulted.
+ *
+ *  @author Luna, Tian
+ */
+class Collector {
+
+    /** The default grace period, in seconds: two weeks. */
+    static final int DEFAULT_GRACE = 14 * 24 * 60 * 60;
+
+    /** How old the lock of a gc must be to be taken as left by a crash. */
+    private static final long STALE_LOCK = 12L * 60 * 60 * 1000;
+
+    /** The repository collected. */
+    private final Repository repo;
+
+    /** Objects written at or after this time, in milliseconds, are roots. */
+    private final long cutoff;
+
+    /** The ids of the trees and blobs here, sorted; an object's number is
+     *  its index. */
+    private final List<String> treeIds, blobIds;
+
+    /** Live trees and blobs, by number. */
+    private final BitSet liveTrees, liveBlobs;
+
+    /** Trees walked that are not stored here but in an alternate. */
+    private final Set<String> otherTrees = new HashSet<>();
+
+    private Collector(Repository repo, long cutoff) {
+        this.repo = repo;
+        this.cutoff = cutoff;
+        treeIds = repo.trees.ids();
+        blobIds = repo.blobs.ids();
+        liveTrees = new BitSet(treeIds.size());
+        liveBlobs = new BitSet(blobIds.size());
+    }
+
+    /** Delete whatever in REPO nothing refers to and is older than the
+     *  grace period. */
+    static void collect(Repository repo) {
+        File lock = Utils.join(repo.gitletDir, "gc.lock");
+        try {
+            if (lock.isFile() && lock.lastModified() < System.currentTimeMillis() - STALE_LOCK) {
+                lock.delete();
+            }
+            Files.createFile(lock.toPath());
+        } catch (FileAlreadyExistsException excp) {
+            throw Utils.error("Another gc is running.");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            long grace = new Settings(repo.settingsFile).getInt("gc.pruneExpire", DEFAULT_GRACE);
+            new Collector(repo, System.currentTimeMillis() - Math.max(0, grace) * 1000L).run();
+        } finally {
+            lock.delete();
+        }
+    }
+
+    /** Mark, then sweep. */
+    private void run() {
+        CommitGraph graph = repo.graph;
+        List<String> commitIds = repo.commits.ids();
+        BitSet liveCommits = markCommits(commitIds);
+        for (int pos = liveCommits.nextSetBit(0); pos >= 0; pos = liveCommits.nextSetBit(pos + 1)) {
+            Commit c = Commit.read(repo.commits, repo.trees, graph.id(pos));
+            if (c.fileMap instanceof PathMap) {
+                markTree(c.tree());
+            } else {
+                for (String blob : c.fileMap.values()) {
+                    markBlob(blob);
+                }
+            }
+        }
+        for (String blob : repo.session().staged().values()) {
+            markBlob(blob);
+        }
+        BitSet young = repo.trees.writtenSince(treeIds, cutoff);
+        for (int i = young.nextSetBit(0); i >= 0; i = young.nextSetBit(i + 1)) {
+            markTree(treeIds.get(i));
+        }
+        young = repo.blobs.writtenSince(blobIds, cutoff);
+        for (int i = young.nextSetBit(0); i >= 0; i = young.nextSetBit(i + 1)) {
+            markBlob(blobIds.get(i));
+        }
+
+        BitSet keepCommits = new BitSet(commitIds.size());
+        Set<String> dead = new HashSet<>();
+        for (int i = 0; i < commitIds.size(); i++) {
+            String id = commitIds.get(i);
+            if (graph.contains(id) && liveCommits.get(graph.position(id))) {
+                keepCommits.set(i);
+            } else {
+                dead.add(id);
+            }
+        }
+        for (int pos = liveCommits.nextClearBit(0); pos < graph.size();
+             pos = liveCommits.nextClearBit(pos + 1)) {
+            dead.add(graph.id(pos));
+        }
+        /* Nothing may refer to a commit once it is gone. */
+        graph.removeAll(dead);
+        repo.commitIndex.removeAll(dead);
+        repo.commits.prune(commitIds, keepCommits, cutoff);
+        repo.trees.prune(treeIds, liveTrees, cutoff);
+        repo.blobs.prune(blobIds, liveBlobs, cutoff);
+    }
+
+    /** Return the live commits, by graph position: those at branches,
+     *  those among COMMITIDS written within the grace period, and all
+     *  their ancestors. */
+    private BitSet markCommits(List<String> commitIds) {
+        CommitGraph graph = repo.graph;
+        List<Integer> roots = new ArrayList<>();
+        for (Map.Entry<String, String> e : repo.session().branches().branchMap.entrySet()) {
+            int pos = graph.position(e.getValue());
+            if (pos == CommitGraph.NONE) {
+                throw new IllegalArgumentException("branch " + e.getKey() + " has no commit");
+            }
+            roots.add(pos);
+        }
+        BitSet young = repo.commits.writtenSince(commitIds, cutoff);
+        for (int i = young.nextSetBit(0); i >= 0; i = young.nextSetBit(i + 1)) {
+            int pos = graph.position(commitIds.get(i));
+            if (pos != CommitGraph.NONE) {
+                roots.add(pos);
+            }
+        }
+        BitSet live = new BitSet(graph.size());
+        ArrayDeque<Integer> fringe = new ArrayDeque<>();
+        for (int root : roots) {
+            if (!live.get(root)) {
+                live.set(root);
+                fringe.push(root);
+            }
+        }
+        while (!fringe.isEmpty()) {
+            for (int p : graph.parents(fringe.pop())) {
+                if (!live.get(p)) {
+                    live.set(p);
+                    fringe.push(p);
+                }
+            }
+        }
+        return live;
+    }
+
+    /** Mark tree ID, and what is under it, live, unless it already is. */
+    private void markTree(String id) {
+        int n = Collections.binarySearch(treeIds, id);
+        if (n >= 0 ? liveTrees.get(n) : !otherTrees.add(id)) {
+            return;
+        }
+        if (n >= 0) {
+            liveTrees.set(n);
+        }
+        for (Map.Entry<String, String> e : Tree.read(repo.trees, id).entrySet()) {
+            if (e.getKey().endsWith("/")) {
+                markTree(e.getValue());
+            } else {
+                markBlob(e.getValue());
+            }
+        }
+    }
+
+    /** Mark blob ID, and the delta bases it is stored against, live.  A
+     *  blob not stored here, in an alternate or left with a promisor, has
+     *  nothing here to keep. */
+    private void markBlob(String id) {
+        for (String next = id; next != null; next = repo.blobs.baseOf(next)) {
+            int n = Collections.binarySearch(blobIds, next);
+            if (n < 0 || liveBlobs.get(n)) {
+                return;
+            }
+            liveBlobs.set(n);
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package gitlet;
 
-import java.io.File;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import static gitlet.Repository.*;
 import static gitlet.Utils.*;
 import static gitlet.Utils.readContents;
 
@@ -12,15 +15,27 @@ import static gitlet.Utils.readContents;
  *  include the setCommit method and saveCommit method to save the commit.
  *  does at a high level.
  *
+ *  Stored in a canonical binary encoding, see encode(); the commit's id is
+ *  the Sha1 of those bytes.  Commits from older repositories, stored with
+ *  Java serialization, are still read, and keep the id they were stored as.
+ *
  *  @author Luna, Tian
  */
 public class Commit implements Serializable {
 
+    /** Matches the commits written with Java serialization. */
+    private static final long serialVersionUID = 7997024669405650219L;
+
+    /** Magic number and version of the encoding.  Version 1 listed every
+     *  file; version 2 names the root Tree instead. */
+    static final int MAGIC = 0x47434d54, VERSION = 2;
+
     /** ArrayList of parents' Sha1 */
     ArrayList<String> parent = new ArrayList<>();
 
-    /** files Hashmap, key is the file name, value is file's Sha1 */
-    HashMap<String, String> fileMap;
+    /** files map, key is the file path, value is file's Sha1
+     *  a PathMap over the commit's trees, unless read from an older commit */
+    Map<String, String> fileMap;
 
     /** String of Commit's message */
     String message;
@@ -28,18 +43,35 @@ public class Commit implements Serializable {
     /** Date, timestamp of commit */
     Date timestamp;
 
-    /** initial commit*/
+    /** Sha1 of this commit, once known */
+    private transient String sha1;
+
+    /** where this commit's trees are */
+    private transient ObjectStore trees;
+
+    /** id of the root tree written for an older commit's files, once known */
+    private transient String treeId;
+
+    /** initial commit, with its trees in TREES */
+    Commit(ObjectStore trees, String m) {
+        message = m;
+        this.trees = trees;
+        timestamp = new Date(0);
+        parent = null;
+        fileMap = new PathMap(trees, Tree.write(trees, new HashMap<>()));
+    }
+
+    /** child of N */
     Commit(Commit n, String m) {
         message = m;
-        if (n == null) {
-            timestamp = new Date(0);
-            parent = null;
-            fileMap = new HashMap<>();
-        } else {
-            timestamp = new Date();
-            parent.add(n.getSha1());     //parent: sha1 of parent Node
-            fileMap = n.fileMap;
-        }
+        trees = n.trees;
+        timestamp = new Date();
+        parent.add(n.getSha1());     //parent: sha1 of parent Node
+        fileMap = new PathMap(trees, n.tree());     //shares the parent's trees
+    }
+
+    /** blank commit, for decode */
+    private Commit() {
     }
 
     /** Commit after merge */
@@ -48,54 +80,165 @@ public class Commit implements Serializable {
         timestamp = new Date();
         parent.add(n.getSha1());     //parent: sha1 of parent Node
         parent.add(n2.getSha1());
-        fileMap = n.fileMap;
+        trees = n.trees;
+        fileMap = new PathMap(trees, n.tree());
     }
 
 
-    public Commit setCommit() {
-        List<String> addFile = Utils.plainFilenamesIn(STAGE_ADD);
-        BlobHashMap blobH = readObject(Utils.join(BLOB_FILES, "blob_map"), BlobHashMap.class);
-
-        for (int i = 0; i < addFile.size(); i++) {
-            String addFileName = addFile.get(i);
-            File addF = Utils.join(STAGE_ADD, addFileName);    //single add file
-            String addSha1 = Utils.sha1(readContents(addF));      //add file's sha1
-            this.fileMap.put(addFileName, addSha1);        //put this file in comNode
-            blobH.insert(addSha1, addF);       //add fileName & sha1 in blobhash
-            addF.delete();
-        }
-
-        List<String> removeFiles = Utils.plainFilenamesIn(STAGE_REMOVE);
-        for (int j = 0; j < removeFiles.size(); j++) {
-            String rmName = removeFiles.get(j);
-            File rmFile = Utils.join(STAGE_REMOVE, rmName);    //single add file
-            String rmSha1 = Utils.sha1(readContents(rmFile));      //add file's sha1
-            this.fileMap.remove(rmName, rmSha1);
-            blobH.insert(rmSha1, rmFile);
-            rmFile.delete();
+    /** take the files staged in REPO into this commit; their blobs were
+     *  stored when they were added */
+    public Commit setCommit(Repository repo) {
+        sha1 = null;
+        treeId = null;
+        Session session = repo.session();
+        this.fileMap.putAll(session.staged());      //name -> staged blob id
+        for (String rmName : session.removed()) {
+            this.fileMap.remove(rmName);
         }
+        session.clearStage();
         return this;
     }
 
 
     public String getSha1() {
-        return Utils.sha1(serialize(this));
+        if (sha1 == null) {
+            sha1 = Utils.sha1(encode());
+        }
+        return sha1;
     }
 
     /**
-     * safe Commit in COMMIT folder
+     * safe Commit in REPO's commit folder
      */
-    public void safeCommit() {
-        File committed = Utils.join(Repository.COMMIT, this.getSha1());
-        Utils.writeObject(committed, this);
+    public void safeCommit(Repository repo) {
+        String id = this.getSha1();
+        repo.commits.write(id, encode());
+        repo.graph.add(id, this);
+        repo.commitIndex.add(id);
     }
 
-}
 
+    /** return the id of this commit's root tree, storing its trees first if needed */
+    public String tree() {
+        if (fileMap instanceof PathMap) {
+            return ((PathMap) fileMap).root();
+        }
+        if (treeId == null) {
+            treeId = Tree.write(trees, fileMap);
+        }
+        return treeId;
+    }
 
 
+    /** return the paths of the files that differ between commits A and B, skipping shared trees */
+    public static TreeSet<String> changedFiles(Commit a, Commit b) {
+        return Tree.diff(a.trees, a.tree(), b.tree());
+    }
 
 
+    /**
+     * canonical bytes of this commit: "GCMT", version, timestamp, message,
+     * parent count and ids, then the id of its root tree
+     */
+    byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(timestamp.getTime());
+            writeString(out, message);
+            out.writeByte(parent == null ? 0 : parent.size());
+            if (parent != null) {
+                for (String p : parent) {
+                    out.write(Utils.fromHex(p));
+                }
+            }
+            out.write(Utils.fromHex(tree()));
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw error("Internal error encoding commit.");
+        }
+    }
 
+    /** decode BYTES, either encoded or a serialized older commit, whose trees are in TREESTORE */
+    static Commit decode(byte[] bytes, ObjectStore treeStore) {
+        if (bytes.length > 1 && bytes[0] == (byte) 0xac && bytes[1] == (byte) 0xed) {
+            return Utils.deserialize(bytes, Commit.class);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (bytes.length < 5 || in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("not a commit");
+        }
+        int version = in.get();
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("not a commit");
+        }
+        Trace.decoded("Commit");
+        Commit c = new Commit();
+        c.timestamp = new Date(in.getLong());
+        c.message = readString(in);
+        int parents = in.get();
+        byte[] id = new byte[Pack.ID_BYTES];
+        c.parent = null;
+        if (parents > 0) {
+            c.parent = new ArrayList<>();
+            for (int i = 0; i < parents; i++) {
+                in.get(id);
+                c.parent.add(Utils.toHex(id));
+            }
+        }
+        if (version == 1) {
+            c.fileMap = new FileMap(in, in.getInt());
+        } else {
+            in.get(id);
+            c.fileMap = new PathMap(treeStore, Utils.toHex(id));
+        }
+        return c;
+    }
+
+    /** Encoded commits kept in ENCODED. */
+    private static final int CACHE_SIZE = 1024;
+
+    /** Recently read commits by id.  A commit never changes, so this
+     *  serves every store and lasts as long as a daemon does. */
+    private static final LinkedHashMap<String, byte[]> ENCODED =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> e) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+    /** read commit ID from STORE, with its trees in TREES */
+    static Commit read(ObjectStore store, ObjectStore trees, String id) {
+        byte[] bytes;
+        synchronized (ENCODED) {
+            bytes = ENCODED.get(id);
+        }
+        if (bytes == null) {
+            bytes = store.read(id);
+            synchronized (ENCODED) {
+                ENCODED.put(id, bytes);
+            }
+        }
+        Commit c = decode(bytes, trees);
+        c.sha1 = id;
+        c.trees = trees;
+        return c;
+    }
 
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
 
+    private static String readString(ByteBuffer in) {
+        byte[] b = new byte[in.getInt()];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,709 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/** The shape of the commit history, kept next to COMMIT so that ancestor
+ *  walks never need to deserialize a Commit.  Every commit gets a dense
+ *  integer position; its parents, generation number (1 for the initial
+ *  commit, otherwise one more than its highest parent) and timestamp are
+ *  kept in primitive arrays indexed by that position.  Messages are kept
+ *  too, so that global-log and find never deserialize a Commit either.
+ *
+ *  The file is "GGRF", version, then one fixed-size record per commit in
+ *  position order: the 20-byte id, the positions of the first and second
+ *  parent (-1 if none), the generation, the timestamp in milliseconds and
+ *  where its message starts in the messages file next to it.  That holds
+ *  each message as its length and UTF-8 bytes, and a MessageIndex next to
+ *  both finds them by content.  Parents always come before their children,
+ *  so new commits, and their messages, are simply appended.
+ *
+ *  Commit, fetch and push add the commits they store.  If there is no
+ *  usable file, as in a repository older than it, it is built from every
+ *  commit in the store; commits that still turn up some other way are
+ *  added the first time they are asked for.
+ *
+ *  @author Luna, Tian
+ */
+class CommitGraph {
+
+    /** Magic number and version of the graph file. */
+    static final int MAGIC = 0x47475246, VERSION = 2;
+
+    /** Length of the header. */
+    private static final int HEADER = 8;
+
+    /** Length of an id. */
+    private static final int ID = Pack.ID_BYTES;
+
+    /** Length of one commit's record. */
+    private static final int RECORD = Pack.ID_BYTES + 4 + 4 + 4 + 8 + 8;
+
+    /** No parent. */
+    static final int NONE = -1;
+
+    /** Size of a segment of the mapped messages file, as a power of two. */
+    private static final int SEGMENT_BITS = 30;
+
+    /** The graph file. */
+    private final File file;
+
+    /** The messages file. */
+    private final File messageFile;
+
+    /** Positions by message. */
+    private final MessageIndex finds;
+
+    /** The commits this graph describes, and their trees. */
+    private final ObjectStore commits, trees;
+
+    /** Commit ids by position, ID_BYTES each, or null if not loaded, and
+     *  the number of commits. */
+    private byte[] ids;
+    private int count;
+
+    /** Positions by id: an open-addressing table of one more than a
+     *  position, 0 for an empty slot, hashed on an id's first bytes. */
+    private int[] table;
+
+    /** Parent positions, generations and timestamps, by position. */
+    private int[] parent1, parent2, generation;
+    private long[] timestamp;
+
+    /** Where each saved message starts in MESSAGEFILE, by position. */
+    private long[] messageAt;
+
+    /** Messages of the commits from position SAVED on. */
+    private List<String> pending;
+
+    /** The messages file mapped in segments of 1 << SEGMENT_BITS bytes,
+     *  as a single mapping holds at most 2 GiB, or null if it is not
+     *  mapped; and how many bytes of it are mapped. */
+    private MappedByteBuffer[] messages;
+    private long mappedLength;
+
+    /** Number of records already in FILE, and what identified FILE when
+     *  they were read or written. */
+    private int saved;
+    private Object fileKey;
+
+    /** True if nothing is ever written to FILE and the files next to it. */
+    private final boolean readOnly;
+
+    CommitGraph(File file, ObjectStore commits, ObjectStore trees) {
+        this(file, commits, trees, false);
+    }
+
+    /** The graph in FILE of COMMITS, whose trees are in TREES; if
+     *  READONLY, one that is only read,
+     *  such as a remote's that a fetch copies from, and that is built
+     *  in memory if it is missing or out of date. */
+    CommitGraph(File file, ObjectStore commits, ObjectStore trees, boolean readOnly) {
+        this.readOnly = readOnly;
+        this.file = file;
+        this.messageFile = new File(file.getPath() + ".messages");
+        this.finds = new MessageIndex(new File(file.getPath() + ".find"));
+        this.commits = commits;
+        this.trees = trees;
+    }
+
+    /** Number of commits in the graph. */
+    int size() {
+        load();
+        return count;
+    }
+
+    /** Return the id of the commit at POS. */
+    String id(int pos) {
+        load();
+        return Utils.toHex(Arrays.copyOfRange(ids, pos * ID, pos * ID + ID));
+    }
+
+    /** Return the position of commit ID, adding it and any missing
+     *  ancestors from the store first.  Returns NONE if there is no such
+     *  commit. */
+    int position(String id) {
+        load();
+        int pos = find(id);
+        if (pos != NONE) {
+            return pos;
+        }
+        if (id == null || !commits.contains(id)) {
+            return NONE;
+        }
+        insert(id);
+        save();
+        return find(id);
+    }
+
+    /** Give commit ID, which is in the store, and any of its ancestors
+     *  without one a position. */
+    private void insert(String id) {
+        HashMap<String, Commit> read = new HashMap<>();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            String top = stack.peek();
+            if (find(top) != NONE) {
+                stack.pop();
+                continue;
+            }
+            Commit c = read.get(top);
+            if (c == null) {
+                c = Commit.read(commits, trees, top);
+                read.put(top, c);
+            }
+            boolean ready = true;
+            if (c.parent != null) {
+                for (String p : c.parent) {
+                    if (find(p) == NONE) {
+                        stack.push(p);
+                        ready = false;
+                    }
+                }
+            }
+            if (ready) {
+                stack.pop();
+                append(top, c);
+            }
+        }
+    }
+
+    /** True iff ID already has a position. */
+    boolean contains(String id) {
+        load();
+        return find(id) != NONE;
+    }
+
+    /** Record commit C, whose id is ID, and write it out.  Its parents must
+     *  already be in the store. */
+    void add(String id, Commit c) {
+        if (c.parent != null) {
+            for (String p : c.parent) {
+                position(p);
+            }
+        }
+        load();
+        if (find(id) == NONE) {
+            append(id, c);
+            save();
+        }
+    }
+
+    /** Record the commits CS, whose ids are IDS, parents first, and write
+     *  them out together.  Parents not among them must already be in the
+     *  store. */
+    void addAll(List<String> ids, List<Commit> cs) {
+        load();
+        for (int i = 0; i < ids.size(); i++) {
+            Commit c = cs.get(i);
+            if (c.parent != null) {
+                for (String p : c.parent) {
+                    if (find(p) == NONE) {
+                        insert(p);
+                    }
+                }
+            }
+            if (find(ids.get(i)) == NONE) {
+                append(ids.get(i), c);
+            }
+        }
+        save();
+    }
+
+    /** Forget the commits DEAD, which gc is about to delete and of which no
+     *  other commit is a descendant, and write the graph and the index of
+     *  messages again, renumbering the rest in the same order.  The
+     *  messages file is left as it is, dead messages and all, so the
+     *  offsets of the rest still hold whatever else reads it meanwhile. */
+    void removeAll(Set<String> dead) {
+        refresh();
+        load();
+        int n = count;
+        int[] renumbered = new int[n];
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            renumbered[i] = dead.contains(id(i)) ? NONE : kept++;
+        }
+        if (kept == n) {
+            return;
+        }
+        byte[] oldIds = ids;
+        int[] oldParent1 = parent1, oldParent2 = parent2;
+        long[] oldTimestamp = timestamp, oldMessageAt = messageAt;
+        ids = new byte[kept * ID];
+        table = new int[16];
+        parent1 = new int[kept];
+        parent2 = new int[kept];
+        generation = new int[kept];
+        timestamp = new long[kept];
+        messageAt = new long[kept];
+        count = 0;
+        for (int i = 0; i < n; i++) {
+            if (renumbered[i] != NONE) {
+                System.arraycopy(oldIds, i * ID, ids, count * ID, ID);
+                messageAt[count] = oldMessageAt[i];
+                put(oldParent1[i] == NONE ? NONE : renumbered[oldParent1[i]],
+                    oldParent2[i] == NONE ? NONE : renumbered[oldParent2[i]], oldTimestamp[i]);
+            }
+        }
+        rewrite();
+        finds.clear(count);
+        for (int i = 0; i < count; i++) {
+            finds.add(message(i), i);
+        }
+    }
+
+    int generation(int pos) {
+        return generation[pos];
+    }
+
+    long timestamp(int pos) {
+        return timestamp[pos];
+    }
+
+    /** Return the message of the commit at POS. */
+    String message(int pos) {
+        load();
+        if (pos >= saved) {
+            return pending.get(pos - saved);
+        }
+        long at = messageAt[pos];
+        byte[] bytes = readMessages(at + 4, ByteBuffer.wrap(readMessages(at, 4)).getInt());
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Return the LEN bytes of the messages file starting at AT, which may
+     *  span two segments. */
+    private byte[] readMessages(long at, int len) {
+        if (messages == null || at + len > mappedLength) {
+            mapMessages();
+        }
+        byte[] result = new byte[len];
+        for (int done = 0; done < len; ) {
+            long p = at + done;
+            MappedByteBuffer seg = messages[(int) (p >>> SEGMENT_BITS)];
+            int off = (int) (p & ((1L << SEGMENT_BITS) - 1));
+            int n = Math.min(len - done, seg.capacity() - off);
+            seg.get(off, result, done, n);
+            done += n;
+        }
+        return result;
+    }
+
+    /** Return the positions of the commits whose message is MESSAGE, in order. */
+    int[] withMessage(String message) {
+        load();
+        int[] result = finds.candidates(message);
+        int n = 0;
+        for (int pos : result) {
+            if (pos < count && message(pos).equals(message)) {
+                result[n++] = pos;
+            }
+        }
+        result = Arrays.copyOf(result, n);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /** Return the first parent of POS, or NONE. */
+    int firstParent(int pos) {
+        return parent1[pos];
+    }
+
+    /** Return the parents of POS, first parent first. */
+    int[] parents(int pos) {
+        if (parent1[pos] == NONE) {
+            return new int[0];
+        } else if (parent2[pos] == NONE) {
+            return new int[] {parent1[pos]};
+        }
+        return new int[] {parent1[pos], parent2[pos]};
+    }
+
+    /** Return the positions of START and all its ancestors, in breadth-first
+     *  order, first parents first. */
+    int[] ancestors(int start) {
+        load();
+        int[] order = new int[count];
+        int n = 0;
+        BitSet seen = new BitSet(count);
+        order[n++] = start;
+        seen.set(start);
+        for (int i = 0; i < n; i++) {
+            int curr = order[i];
+            int p = parent1[curr];
+            if (p != NONE && !seen.get(p)) {
+                seen.set(p);
+                order[n++] = p;
+            }
+            p = parent2[curr];
+            if (p != NONE && !seen.get(p)) {
+                seen.set(p);
+                order[n++] = p;
+            }
+        }
+        return Arrays.copyOf(order, n);
+    }
+
+    /** Return the set of START and all its ancestors. */
+    BitSet ancestorSet(int start) {
+        BitSet result = new BitSet(size());
+        for (int a : ancestors(start)) {
+            result.set(a);
+        }
+        return result;
+    }
+
+    /** True iff ANCESTOR is DESCENDANT or one of its ancestors.  Commits
+     *  with a lower generation than ANCESTOR are not followed. */
+    boolean isAncestor(int ancestor, int descendant) {
+        load();
+        int floor = generation[ancestor];
+        BitSet seen = new BitSet(count);
+        ArrayDeque<Integer> fringe = new ArrayDeque<>();
+        fringe.add(descendant);
+        seen.set(descendant);
+        while (!fringe.isEmpty()) {
+            int curr = fringe.poll();
+            if (curr == ancestor) {
+                return true;
+            }
+            for (int p : parents(curr)) {
+                if (!seen.get(p) && generation[p] >= floor) {
+                    seen.set(p);
+                    fringe.add(p);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Give commit C, with id ID, the next position.  Its parents must
+     *  already have positions. */
+    private void append(String id, Commit c) {
+        int pos = count;
+        if (pos == parent1.length) {
+            int cap = Math.max(16, pos * 2);
+            ids = Arrays.copyOf(ids, cap * ID);
+            parent1 = Arrays.copyOf(parent1, cap);
+            parent2 = Arrays.copyOf(parent2, cap);
+            generation = Arrays.copyOf(generation, cap);
+            timestamp = Arrays.copyOf(timestamp, cap);
+            messageAt = Arrays.copyOf(messageAt, cap);
+        }
+        int p1 = NONE, p2 = NONE;
+        if (c.parent != null && c.parent.size() > 0) {
+            p1 = find(c.parent.get(0));
+            if (c.parent.size() > 1) {
+                p2 = find(c.parent.get(1));
+            }
+        }
+        System.arraycopy(Utils.fromHex(id), 0, ids, pos * ID, ID);
+        put(p1, p2, c.timestamp.getTime());
+        pending.add(c.message);
+    }
+
+    /** Add the record for the next position, whose id is already in IDS. */
+    private void put(int p1, int p2, long time) {
+        int pos = count;
+        int gen = 1;
+        if (p1 != NONE) {
+            gen = Math.max(gen, generation[p1] + 1);
+        }
+        if (p2 != NONE) {
+            gen = Math.max(gen, generation[p2] + 1);
+        }
+        parent1[pos] = p1;
+        parent2[pos] = p2;
+        generation[pos] = gen;
+        timestamp[pos] = time;
+        count += 1;
+        if (count * 2 > table.length) {
+            table = new int[table.length * 2];
+            for (int i = 0; i < count; i++) {
+                index(i);
+            }
+        } else {
+            index(pos);
+        }
+    }
+
+    /** Return the position of ID, or NONE if it has none. */
+    private int find(String id) {
+        if (id == null || id.length() != Utils.UID_LENGTH) {
+            return NONE;
+        }
+        byte[] key = Utils.fromHex(id);
+        int mask = table.length - 1;
+        for (int slot = hash(key, 0) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int pos = table[slot] - 1;
+            if (Arrays.equals(ids, pos * ID, pos * ID + ID, key, 0, ID)) {
+                return pos;
+            }
+        }
+        return NONE;
+    }
+
+    /** Enter the id at POS in TABLE. */
+    private void index(int pos) {
+        int mask = table.length - 1;
+        int slot = hash(ids, pos * ID) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = pos + 1;
+    }
+
+    /** Return the hash of the id starting at OFF in BYTES: its first four
+     *  bytes, ids being SHA-1 hashes already. */
+    private static int hash(byte[] bytes, int off) {
+        return (bytes[off] & 0xff) << 24 | (bytes[off + 1] & 0xff) << 16
+            | (bytes[off + 2] & 0xff) << 8 | (bytes[off + 3] & 0xff);
+    }
+
+    /** Forget what was loaded if another process changed FILE since. */
+    void refresh() {
+        if (ids != null && !unchanged()) {
+            ids = null;
+        }
+        messages = null;
+        finds.refresh();
+    }
+
+    /** True iff FILE is still the file loaded, holding the SAVED records
+     *  this process knows of: neither written again, which gc does when it
+     *  renumbers, nor appended to by another process. */
+    private boolean unchanged() {
+        if (saved == 0) {
+            return file.length() == 0;
+        }
+        return file.length() == HEADER + (long) saved * RECORD && Objects.equals(key(file), fileKey);
+    }
+
+    /** Return what identifies FILE on its file system, so that a file
+     *  renamed over it is told apart, or null if there is none. */
+    private static Object key(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Read FILE, if that has not been done yet. */
+    private void load() {
+        if (ids != null) {
+            return;
+        }
+        ids = new byte[0];
+        count = 0;
+        table = new int[16];
+        parent1 = new int[0];
+        parent2 = new int[0];
+        generation = new int[0];
+        timestamp = new long[0];
+        messageAt = new long[0];
+        pending = new ArrayList<>();
+        messages = null;
+        saved = 0;
+        fileKey = key(file);
+        byte[] bytes = file.isFile() ? Utils.readContents(file) : new byte[0];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        if (buf.limit() < HEADER || buf.getInt(0) != MAGIC
+                || buf.getInt(4) != VERSION) {
+            /* Missing, unreadable or of an older version. */
+            for (String id : commits.ids()) {
+                if (find(id) == NONE) {
+                    insert(id);
+                }
+            }
+            save();
+            return;
+        }
+        /* A torn final record from an interrupted append is ignored, as
+         * are records whose messages never reached the messages file. */
+        int n = (buf.limit() - HEADER) / RECORD;
+        long messageLength = messageFile.length();
+        ids = new byte[n * ID];
+        table = new int[Math.max(16, Integer.highestOneBit(Math.max(1, n)) * 4)];
+        parent1 = new int[n];
+        parent2 = new int[n];
+        generation = new int[n];
+        timestamp = new long[n];
+        messageAt = new long[n];
+        /* Read as ints in one go; a record is a whole number of them. */
+        int[] words = new int[n * RECORD / 4];
+        buf.position(HEADER);
+        buf.asIntBuffer().get(words);
+        for (int i = 0, w = ID / 4; i < n; i++, w += RECORD / 4) {
+            System.arraycopy(bytes, HEADER + i * RECORD, ids, i * ID, ID);
+            int p1 = words[w];
+            int p2 = words[w + 1];
+            long time = (long) words[w + 3] << 32 | words[w + 4] & 0xffffffffL;
+            long at = (long) words[w + 5] << 32 | words[w + 6] & 0xffffffffL;
+            if (at + 4 > messageLength) {
+                n = i;
+                break;
+            }
+            put(p1, p2, time);
+            messageAt[i] = at;
+        }
+        saved = n;
+        if (readOnly) {
+            return;
+        }
+        if (buf.limit() != HEADER + n * RECORD) {
+            rewrite();
+        }
+        if (finds.count() != n) {
+            finds.clear(n);
+            for (int i = 0; i < n; i++) {
+                finds.add(message(i), i);
+            }
+        }
+    }
+
+    /** Append the records added since the last save to FILE, their
+     *  messages to the messages file, and those to the MessageIndex. */
+    private void save() {
+        if (saved == count || readOnly) {
+            return;
+        }
+        if (saved > 0 && !unchanged()) {
+            /* Another process wrote the graph since it was loaded, and gc may
+             * have renumbered it, so the records here would not fit: take
+             * its file and add the new commits to that. */
+            List<String> added = new ArrayList<>();
+            for (int i = saved; i < count; i++) {
+                added.add(id(i));
+            }
+            ids = null;
+            load();
+            for (String id : added) {
+                if (find(id) == NONE) {
+                    insert(id);
+                }
+            }
+            if (saved == count) {
+                return;
+            }
+        }
+        int from = saved;
+        writeMessages();
+        if (saved == 0 || !file.isFile()) {
+            rewrite();
+        } else {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(file.toPath(), StandardOpenOption.APPEND)))) {
+                writeRecords(out, saved);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            saved = count;
+        }
+        if (from == 0) {
+            finds.clear(count);
+        }
+        for (int i = from; i < count; i++) {
+            finds.add(pending.get(i - from), i);
+        }
+        pending.clear();
+    }
+
+    /** Write the messages of the records not yet saved to the messages
+     *  file, after the saved ones, and note where each starts. */
+    private void writeMessages() {
+        long at = saved == 0 ? 0 : messageFile.length();
+        try {
+            /* Messages from scratch go in whole, never over ones still in use. */
+            File dest = saved == 0
+                ? File.createTempFile("tmp-", ".messages", messageFile.getParentFile()) : messageFile;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(dest.toPath(), StandardOpenOption.CREATE,
+                                          StandardOpenOption.APPEND)))) {
+                for (int i = saved; i < count; i++) {
+                    byte[] bytes = pending.get(i - saved).getBytes(StandardCharsets.UTF_8);
+                    messageAt[i] = at;
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                    at += 4 + bytes.length;
+                }
+            }
+            if (dest != messageFile) {
+                Files.move(dest.toPath(), messageFile.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        messages = null;
+    }
+
+    /** Write every record to FILE from scratch, into a new file that then
+     *  takes FILE's place, so a reader sees the old graph or the new. */
+    private void rewrite() {
+        try {
+            File tmp = File.createTempFile("tmp-", ".graph", file.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeRecords(out, 0);
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        saved = count;
+        fileKey = key(file);
+    }
+
+    /** Map the whole messages file into MESSAGES, segment by segment. */
+    private void mapMessages() {
+        try (FileChannel ch = FileChannel.open(messageFile.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            long segment = 1L << SEGMENT_BITS;
+            MappedByteBuffer[] segs = new MappedByteBuffer[(int) ((size + segment - 1) / segment)];
+            for (int k = 0; k < segs.length; k++) {
+                long start = k * segment;
+                segs[k] = ch.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segment, size - start));
+            }
+            messages = segs;
+            mappedLength = size;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write the records from position FROM on to OUT. */
+    private void writeRecords(DataOutputStream out, int from) throws IOException {
+        for (int i = from; i < count; i++) {
+            out.write(ids, i * ID, ID);
+            out.writeInt(parent1[i]);
+            out.writeInt(parent2[i]);
+            out.writeInt(generation[i]);
+            out.writeLong(timestamp[i]);
+            out.writeLong(messageAt[i]);
+        }
+    }
+}
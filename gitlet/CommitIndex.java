@@ -0,0 +1,331 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+
+/** Every commit id in sorted order, kept next to COMMIT so that an
+ *  abbreviated id is resolved by binary search instead of by listing the
+ *  store.
+ *
+ *  The index file is "GCIX", version, a 256-entry fanout table (fanout[b]
+ *  is the number of ids whose first byte is <= b) and the sorted 20-byte
+ *  ids; it is memory-mapped.  Commits added since it was written are
+ *  appended, 20 bytes each, to a tail file next to it, which is merged in
+ *  once it holds TAIL_LIMIT ids.  If the two miss a commit that reached
+ *  the store some other way, or do not exist yet, the index is rebuilt
+ *  from the store the first time a lookup finds nothing.  The store is
+ *  only listed for that if its directories changed no earlier than the
+ *  index and tail files; a listing that finds nothing missing marks the
+ *  index as checked by setting its modification time.
+ *
+ *  @author Luna, Tian
+ */
+class CommitIndex {
+
+    /** Magic number and version of the index file. */
+    static final int MAGIC = 0x47434958, VERSION = 1;
+
+    /** Byte offset of the fanout table, and of the ids after it. */
+    private static final int FANOUT = 8, IDS = FANOUT + 256 * 4;
+
+    /** Most ids the tail holds before it is merged into the index. */
+    static final int TAIL_LIMIT = 1024;
+
+    /** The index file and its tail. */
+    private final File file, tailFile;
+
+    /** The commits this indexes. */
+    private final ObjectStore commits;
+
+    /** The mapped index file, or null if it is not loaded. */
+    private MappedByteBuffer idx;
+
+    /** Number of ids in IDX. */
+    private int count;
+
+    /** The ids in the tail file, and its length when read. */
+    private TreeSet<String> tail;
+    private long tailLength;
+
+    CommitIndex(File file, ObjectStore commits) {
+        this.file = file;
+        this.tailFile = new File(file.getPath() + ".tail");
+        this.commits = commits;
+    }
+
+    /** Record commit ID, which is already in the store. */
+    void add(String id) {
+        addAll(List.of(id));
+    }
+
+    /** Record the commits IDS, which are already in the store, with one
+     *  append to the tail, or one rewrite if that would fill it. */
+    void addAll(Collection<String> ids) {
+        load();
+        TreeSet<String> fresh = new TreeSet<>();
+        for (String id : ids) {
+            if (!contains(id)) {
+                fresh.add(id);
+            }
+        }
+        if (fresh.isEmpty()) {
+            return;
+        }
+        if (tail.size() + fresh.size() >= TAIL_LIMIT) {
+            fresh.addAll(all());
+            write(new ArrayList<>(fresh));
+            return;
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tailFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            for (String id : fresh) {
+                out.write(Utils.fromHex(id));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        tail.addAll(fresh);
+        tailLength += (long) fresh.size() * Pack.ID_BYTES;
+    }
+
+    /** Forget the commits IDS, which gc is about to delete, with one
+     *  rewrite if any of them is recorded. */
+    void removeAll(Collection<String> ids) {
+        refresh();
+        load();
+        List<String> all = all();
+        if (all.removeAll(ids)) {
+            write(all);
+        }
+    }
+
+    /** Return the ids of the commits whose ids start with PREFIX, at most
+     *  LIMIT of them, in order. */
+    List<String> resolve(String prefix, int limit) {
+        load();
+        String p = prefix.toLowerCase(Locale.ROOT);
+        List<String> result = matches(p, limit);
+        if (result.isEmpty() && p.length() <= Utils.UID_LENGTH && isHex(p) && stale()) {
+            write(commits.ids());
+            result = matches(p, limit);
+        }
+        return result;
+    }
+
+    /** Forget what was loaded if another process changed the files since. */
+    void refresh() {
+        if (idx != null && (file.length() != IDS + (long) count * Pack.ID_BYTES
+                || tailFile.length() != tailLength)) {
+            idx = null;
+        }
+    }
+
+    /** True iff ID is in the index or its tail. */
+    private boolean contains(String id) {
+        if (tail.contains(id)) {
+            return true;
+        }
+        int i = position(Utils.fromHex(id));
+        return i < count && id(i).equals(id);
+    }
+
+    /** Return the ids in the index and the tail starting with the hex
+     *  numeral P, at most LIMIT of them. */
+    private List<String> matches(String p, int limit) {
+        List<String> result = new ArrayList<>();
+        if (p.length() > Utils.UID_LENGTH || !isHex(p)) {
+            return result;
+        }
+        String low = p + "0".repeat(Utils.UID_LENGTH - p.length());
+        for (int i = position(Utils.fromHex(low)); i < count && result.size() < limit; i++) {
+            String id = id(i);
+            if (!id.startsWith(p)) {
+                break;
+            }
+            result.add(id);
+        }
+        for (String id : tail.tailSet(p)) {
+            if (!id.startsWith(p) || result.size() >= limit) {
+                break;
+            }
+            result.add(id);
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** True iff the store holds commits the index does not.  The store is
+     *  listed only if it may have changed since the index or tail was
+     *  written or last checked. */
+    private boolean stale() {
+        long checked = Math.max(file.lastModified(), tailFile.lastModified());
+        if (commits.lastChanged() < checked) {
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        List<String> ids = commits.ids();
+        if (ids.size() != count + tail.size()) {
+            for (String id : ids) {
+                if (!contains(id)) {
+                    return true;
+                }
+            }
+        }
+        /* Anything added after START still counts as a change. */
+        if (start > file.lastModified()) {
+            file.setLastModified(start);
+        }
+        return false;
+    }
+
+    /** Return the position of the first id in the index that is not less
+     *  than the binary id ID. */
+    private int position(byte[] id) {
+        int first = id[0] & 0xff;
+        int lo = first == 0 ? 0 : idx.getInt(FANOUT + (first - 1) * 4);
+        int hi = idx.getInt(FANOUT + first * 4);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, id) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Compare the Ith id with ID, as unsigned bytes. */
+    private int compare(int i, byte[] id) {
+        int base = IDS + i * Pack.ID_BYTES;
+        for (int k = 0; k < Pack.ID_BYTES; k++) {
+            int c = (idx.get(base + k) & 0xff) - (id[k] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Return the hex id of the Ith id in the index. */
+    private String id(int i) {
+        byte[] id = new byte[Pack.ID_BYTES];
+        idx.get(IDS + i * Pack.ID_BYTES, id);
+        return Utils.toHex(id);
+    }
+
+    /** Return every id in the index and the tail, sorted. */
+    private List<String> all() {
+        TreeSet<String> all = new TreeSet<>(tail);
+        for (int i = 0; i < count; i++) {
+            all.add(id(i));
+        }
+        return new ArrayList<>(all);
+    }
+
+    /** Map the index and read the tail, if that has not been done yet.  A
+     *  missing or unreadable index is written from the store. */
+    private void load() {
+        if (idx != null) {
+            return;
+        }
+        tail = new TreeSet<>();
+        tailLength = 0;
+        if (!map()) {
+            write(commits.ids());
+            return;
+        }
+        if (tailFile.isFile()) {
+            byte[] bytes = Utils.readContents(tailFile);
+            byte[] id = new byte[Pack.ID_BYTES];
+            /* A torn final id from an interrupted append is ignored. */
+            for (int off = 0; off + Pack.ID_BYTES <= bytes.length; off += Pack.ID_BYTES) {
+                System.arraycopy(bytes, off, id, 0, Pack.ID_BYTES);
+                tail.add(Utils.toHex(id));
+            }
+            tailLength = bytes.length;
+            if (tailLength % Pack.ID_BYTES != 0) {
+                write(all());
+            }
+        }
+    }
+
+    /** Map FILE into IDX, returning false if it is missing or unreadable. */
+    private boolean map() {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (ch.size() < IDS) {
+                return false;
+            }
+            idx = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        count = idx.getInt(FANOUT + 255 * 4);
+        if (idx.getInt(0) != MAGIC || idx.getInt(4) != VERSION
+                || idx.capacity() != IDS + (long) count * Pack.ID_BYTES) {
+            idx = null;
+            return false;
+        }
+        return true;
+    }
+
+    /** Write IDS, which must be sorted, as the whole index, empty the tail,
+     *  and map the result. */
+    private void write(List<String> ids) {
+        file.getParentFile().mkdirs();
+        try {
+            File tmp = File.createTempFile("tmp-", ".idx", file.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                int[] fanout = new int[256];
+                for (String id : ids) {
+                    fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+                }
+                int total = 0;
+                for (int b = 0; b < 256; b++) {
+                    total += fanout[b];
+                    out.writeInt(total);
+                }
+                for (String id : ids) {
+                    out.write(Utils.fromHex(id));
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        tailFile.delete();
+        tail = new TreeSet<>();
+        tailLength = 0;
+        map();
+    }
+
+    /** True iff S is made of hexadecimal digits. */
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if ("0123456789abcdef".indexOf(s.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,175 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/** A long-running gitlet for one repository, so that commands skip JVM
+ *  startup and find the Repository, with its commit graph, packs, trees,
+ *  branches and index, already loaded.  "java gitlet.Main daemon" serves the repository in the
+ *  current directory on the Unix domain socket SOCKET until "daemon stop";
+ *  while it runs, every other gitlet command started in that directory is
+ *  forwarded to it and prints exactly what it would have printed itself.
+ *
+ *  Requests are run one at a time.  A request is the argument count and
+ *  each argument (writeUTF); the reply is a series of frames, each a kind
+ *  byte: OUT or ERR followed by a length and that many bytes of output,
+ *  or EXIT followed by the exit code, which ends the reply.
+ *
+ *  This class must not touch Repository on the client side, so that a
+ *  forwarded command loads nothing but itself.
+ *
+ *  @author Luna, Tian
+ */
+class Daemon {
+
+    /** Frame kinds. */
+    static final int EXIT = 0, OUT = 1, ERR = 2;
+
+    /** The socket, in the .gitlet directory of the current directory. */
+    static final File SOCKET = Utils.join(System.getProperty("user.dir"), ".gitlet", "daemon.sock");
+
+    /** True once a "daemon stop" request has been answered. */
+    private static boolean stopping;
+
+    /** Run ARGS in the daemon serving this directory, copying its output
+     *  to System.out and System.err, and return its exit code.  Returns -1,
+     *  having done nothing, if there is no daemon to connect to. */
+    static int forward(String[] args) {
+        if (!SOCKET.exists()) {
+            return -1;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException | UnsupportedOperationException excp) {
+            return -1;
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel), Utils.BUFFER_SIZE));
+            byte[] buf = new byte[Utils.BUFFER_SIZE];
+            while (true) {
+                int kind = in.readByte();
+                if (kind == EXIT) {
+                    return in.readInt();
+                }
+                PrintStream dest = kind == ERR ? System.err : System.out;
+                for (int left = in.readInt(); left > 0; ) {
+                    int n = in.read(buf, 0, Math.min(left, buf.length));
+                    if (n < 0) {
+                        throw new IOException("reply cut short");
+                    }
+                    dest.write(buf, 0, n);
+                    left -= n;
+                }
+                dest.flush();
+            }
+        } catch (IOException excp) {
+            System.err.println("Lost the connection to the gitlet daemon: " + excp.getMessage());
+            return 1;
+        }
+    }
+
+    /** Serve REPO, the repository in the current directory, until stopped. */
+    static void serve(Repository repo) {
+        if (SOCKET.exists()) {
+            /* forward found nothing listening, so this one is stale */
+            SOCKET.delete();
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            Runtime.getRuntime().addShutdownHook(new Thread(SOCKET::delete));
+            while (!stopping) {
+                try (SocketChannel client = server.accept()) {
+                    handle(repo, client);
+                } catch (IOException excp) {
+                    /* the client went away; its command has finished regardless */
+                }
+            }
+        } catch (IOException | UnsupportedOperationException excp) {
+            throw new GitletException("Cannot start the daemon: " + excp.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /** Run the one request from CLIENT on REPO, sending back its output and exit code. */
+    private static void handle(Repository repo, SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(client)));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+        DataOutputStream reply = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(client)));
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                new Frames(reply, OUT), Utils.BUFFER_SIZE));
+        PrintStream err = new PrintStream(new Frames(reply, ERR), true);
+        int code = 0;
+        try {
+            if (args.length == 1 && args[0].equals("daemon")) {
+                out.println("A daemon is already running.");
+            } else if (args.length == 2 && args[0].equals("daemon") && args[1].equals("stop")) {
+                stopping = true;
+            } else {
+                repo.refresh();
+                Main.run(repo, args, out, err);
+            }
+        } catch (Throwable excp) {
+            out.flush();
+            err.print("Exception in thread \"main\" ");
+            excp.printStackTrace(err);
+            code = 1;
+        } finally {
+            out.flush();
+        }
+        reply.writeByte(EXIT);
+        reply.writeInt(code);
+        reply.flush();
+    }
+
+    /** Output sent to the client as frames of one KIND. */
+    private static class Frames extends OutputStream {
+        private final DataOutputStream reply;
+        private final int kind;
+
+        Frames(DataOutputStream reply, int kind) {
+            this.reply = reply;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                reply.writeByte(kind);
+                reply.writeInt(len);
+                reply.write(b, off, len);
+                reply.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/** Delta encoding of one blob against another, its base.  A delta is a
+ *  list of instructions that rebuild the target from the base:
+ *
+ *    0, offset, length   copy LENGTH bytes of the base from OFFSET
+ *    1, length, bytes    insert the LENGTH BYTES that follow
+ *
+ *  with every number written as a little-endian base-128 varint.  Matches
+ *  are found by indexing the base in BLOCK-byte blocks and sliding a
+ *  rolling hash over the target, as git's diff-delta does.
+ *
+ *  @author Luna, Tian
+ */
+class Delta {
+
+    /** Instruction codes. */
+    private static final int COPY = 0, INSERT = 1;
+
+    /** Length of the blocks the base is indexed by; shorter matches are
+     *  inserted rather than copied. */
+    private static final int BLOCK = 16;
+
+    /** Multiplier of the rolling hash, and its BLOCK-1th power. */
+    private static final int MULT = 31, MULT_TOP = pow(MULT, BLOCK - 1);
+
+    /** Return the delta that rebuilds TARGET from BASE, or null if it
+     *  would not be much smaller than TARGET itself. */
+    static byte[] create(byte[] base, byte[] target) {
+        int blocks = base.length / BLOCK;
+        if (blocks == 0 || target.length < BLOCK) {
+            return null;
+        }
+        int size = Integer.highestOneBit(blocks * 2 - 1) << 1;
+        int mask = size - 1;
+        int[] index = new int[size];
+        Arrays.fill(index, -1);
+        for (int i = 0; i < blocks; i++) {
+            index[hash(base, i * BLOCK) & mask] = i * BLOCK;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int limit = target.length / 2;
+        int pending = 0;
+        int j = 0;
+        int h = hash(target, 0);
+        while (j + BLOCK <= target.length) {
+            int cand = index[h & mask];
+            if (cand >= 0 && same(base, cand, target, j, BLOCK)) {
+                int len = BLOCK;
+                while (cand + len < base.length && j + len < target.length
+                        && base[cand + len] == target[j + len]) {
+                    len += 1;
+                }
+                while (j > pending && cand > 0 && base[cand - 1] == target[j - 1]) {
+                    cand -= 1;
+                    j -= 1;
+                    len += 1;
+                }
+                insert(out, target, pending, j);
+                writeVarint(out, COPY);
+                writeVarint(out, cand);
+                writeVarint(out, len);
+                j += len;
+                pending = j;
+                if (out.size() > limit) {
+                    return null;
+                }
+                if (j + BLOCK <= target.length) {
+                    h = hash(target, j);
+                }
+            } else {
+                if (j + BLOCK < target.length) {
+                    h = (h - target[j] * MULT_TOP) * MULT + target[j + BLOCK];
+                }
+                j += 1;
+            }
+        }
+        insert(out, target, pending, target.length);
+        return out.size() > limit ? null : out.toByteArray();
+    }
+
+    /** Return the LENGTH-byte target rebuilt from BASE and the delta read
+     *  from IN.  Throws IllegalArgumentException if they do not fit. */
+    static byte[] apply(byte[] base, InputStream in, long length) {
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("delta target too large");
+        }
+        byte[] result = new byte[(int) length];
+        int at = 0;
+        try {
+            DataInputStream data = new DataInputStream(in);
+            for (int op = readVarint(data, true); op >= 0; op = readVarint(data, true)) {
+                if (op == COPY) {
+                    int offset = readVarint(data, false);
+                    int len = readVarint(data, false);
+                    System.arraycopy(base, offset, result, at, len);
+                    at += len;
+                } else if (op == INSERT) {
+                    int len = readVarint(data, false);
+                    data.readFully(result, at, len);
+                    at += len;
+                } else {
+                    throw new IOException("bad delta");
+                }
+            }
+        } catch (IOException | IndexOutOfBoundsException excp) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        if (at != result.length) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return result;
+    }
+
+    /** Write an instruction inserting TARGET[FROM..TO), if that is not
+     *  empty. */
+    private static void insert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        if (from < to) {
+            writeVarint(out, INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** True iff the LEN bytes of A at I equal those of B at J. */
+    private static boolean same(byte[] a, int i, byte[] b, int j, int len) {
+        for (int k = 0; k < len; k++) {
+            if (a[i + k] != b[j + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the rolling hash of the BLOCK bytes of DATA at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k++) {
+            h = h * MULT + data[start + k];
+        }
+        return h;
+    }
+
+    private static int pow(int base, int exp) {
+        int result = 1;
+        for (int i = 0; i < exp; i++) {
+            result *= base;
+        }
+        return result;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Read a varint from IN.  At the end of IN, return -1 if ATEND is
+     *  allowed there, else throw EOFException. */
+    private static int readVarint(DataInputStream in, boolean atEnd) throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (atEnd && shift == 0) {
+                    return -1;
+                }
+                throw new EOFException();
+            }
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("bad varint");
+    }
+}
@@ -0,0 +1,123 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/** A commit's files, name to blob id, read straight from the commit's
+ *  encoding.  get and containsKey binary search the encoded entries, which
+ *  are sorted by name; a HashMap is only built once the map is iterated or
+ *  changed.
+ *
+ *  @author Luna, Tian
+ */
+class FileMap extends AbstractMap<String, String> {
+
+    /** The encoded entries, or null once MAP has been built. */
+    private ByteBuffer data;
+
+    /** Start of each entry in DATA: a name length, the UTF-8 name and the
+     *  20-byte blob id. */
+    private int[] offsets;
+
+    /** The entries, once built. */
+    private HashMap<String, String> map;
+
+    /** A map of the COUNT entries in DATA starting at its position. */
+    FileMap(ByteBuffer data, int count) {
+        this.data = data;
+        offsets = new int[count];
+        int at = data.position();
+        for (int i = 0; i < count; i++) {
+            offsets[i] = at;
+            at += 4 + data.getInt(at) + Pack.ID_BYTES;
+        }
+        data.position(at);
+    }
+
+    @Override
+    public int size() {
+        return map != null ? map.size() : offsets.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (map != null) {
+            return map.containsKey(key);
+        }
+        return key instanceof String && find((String) key) >= 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        if (map != null) {
+            return map.get(key);
+        }
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int i = find((String) key);
+        return i < 0 ? null : id(i);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        return built().put(key, value);
+    }
+
+    @Override
+    public String remove(Object key) {
+        return built().remove(key);
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return built().entrySet();
+    }
+
+    /** Return the entries as a HashMap, building it if needed. */
+    private HashMap<String, String> built() {
+        if (map == null) {
+            map = new HashMap<>();
+            for (int i = 0; i < offsets.length; i++) {
+                map.put(name(i), id(i));
+            }
+            data = null;
+            offsets = null;
+        }
+        return map;
+    }
+
+    /** Return the index of the entry for NAME, or -1. */
+    private int find(String name) {
+        int lo = 0, hi = offsets.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = name(mid).compareTo(name);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private String name(int i) {
+        int len = data.getInt(offsets[i]);
+        byte[] bytes = new byte[len];
+        data.get(offsets[i] + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private String id(int i) {
+        byte[] id = new byte[Pack.ID_BYTES];
+        data.get(offsets[i] + 4 + data.getInt(offsets[i]), id);
+        return Utils.toHex(id);
+    }
+}
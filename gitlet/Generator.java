@@ -0,0 +1,237 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeMap;
+
+/** Writes a synthetic repository, history and all, straight into the
+ *  stores of a new .gitlet directory, for measuring commands on histories
+ *  far larger than anyone would build by running them:
+ *
+ *      java gitlet.Generator DIR [--shape linear|branches|criss-cross]
+ *          [--commits N] [--files N] [--churn N] [--branches N]
+ *          [--size BYTES] [--seed N]
+ *
+ *  The first commit after the initial one adds FILES files of SIZE bytes;
+ *  each of the other COMMITS - 1 commits changes CHURN of them.  The shape
+ *  decides their parents:
+ *
+ *  linear       one chain on master.
+ *  branches     BRANCHES branches, master, b1, b2, ..., forked from the
+ *               first commit and taking commits in turn.
+ *  criss-cross  master and b1, each merging the other's last head and then
+ *               taking a commit of its own, so that every merge after the
+ *               first has two merge bases.  Both end on a commit of their own.
+ *
+ *  Each branch only ever changes its own share of the files, so the
+ *  generated merges never conflict, and neither does merging branches of
+ *  the "branches" shape.  Merging criss-crossed branches picks one of the
+ *  two merge bases, and conflicts as it would on any such history.
+ *
+ *  Working files are in one directory, as for every command, so a commit
+ *  that changes files rewrites a tree of all of them; one that changes
+ *  none (CHURN 0) reuses its parent's.  The result is packed and master is
+ *  checked out.  The same arguments always give the same repository.
+ *
+ *  @author Luna, Tian
+ */
+public class Generator {
+
+    /** Shapes of the commit graph. */
+    public enum Shape { LINEAR, BRANCHES, CRISS_CROSS }
+
+    /** Milliseconds between the timestamps of successive commits. */
+    private static final long TICK = 60_000;
+
+    public Shape shape = Shape.LINEAR;
+    public int commits = 1000;
+    public int files = 100;
+    public int churn = 1;
+    public int branches = 4;
+    public int size = 256;
+    public long seed = 61;
+
+    /** Usage: java gitlet.Generator DIR [OPTIONS], as above. */
+    public static void main(String[] args) {
+        if (args.length == 0 || args.length % 2 == 0) {
+            System.out.println("Usage: java gitlet.Generator DIR [--option value]...");
+            System.exit(1);
+        }
+        Generator gen = new Generator();
+        for (int i = 1; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--shape":
+                    gen.shape = Shape.valueOf(value.toUpperCase(Locale.ROOT).replace('-', '_'));
+                    break;
+                case "--commits":
+                    gen.commits = Integer.parseInt(value);
+                    break;
+                case "--files":
+                    gen.files = Integer.parseInt(value);
+                    break;
+                case "--churn":
+                    gen.churn = Integer.parseInt(value);
+                    break;
+                case "--branches":
+                    gen.branches = Integer.parseInt(value);
+                    break;
+                case "--size":
+                    gen.size = Integer.parseInt(value);
+                    break;
+                case "--seed":
+                    gen.seed = Long.parseLong(value);
+                    break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+        try {
+            gen.generate(new File(args[0]));
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** One line of history being generated: its head and that head's files. */
+    private static class Head {
+        final String name;
+        /** This branch changes the files whose number is LINE modulo the
+         *  number of branches. */
+        final int line;
+        Commit commit;
+        TreeMap<String, String> files;
+        /** The root tree of FILES, or null if they changed since it was written. */
+        String tree;
+
+        Head(String name, int line, Commit commit, TreeMap<String, String> files, String tree) {
+            this.name = name;
+            this.line = line;
+            this.commit = commit;
+            this.files = files;
+            this.tree = tree;
+        }
+
+        Head copy() {
+            return new Head(name, line, commit, new TreeMap<>(files), tree);
+        }
+    }
+
+    private Repository repo;
+    private Random random;
+    private long time;
+    private int made;
+    private int lines;
+
+    /** Write the repository described by this Generator's settings in DIR,
+     *  creating DIR if need be, and return it.  DIR must not have one yet. */
+    public Repository generate(File dir) {
+        lines = shape == Shape.LINEAR ? 1 : shape == Shape.CRISS_CROSS ? 2 : branches;
+        if (commits < 1 || files < lines || churn < 0 || branches < 1 || size < 0) {
+            throw Utils.error("Impossible repository.");
+        }
+        dir.mkdirs();
+        repo = Repository.init(dir);
+        random = new Random(seed);
+        time = 1_600_000_000_000L;
+        made = 0;
+
+        TreeMap<String, String> first = new TreeMap<>();
+        for (int i = 0; i < files; i++) {
+            first.put(name(i), blob());
+        }
+        Head master = new Head("master", 0, repo.currCom(), first, null);
+        commit(master, null);
+
+        List<Head> heads = new ArrayList<>();
+        heads.add(master);
+        for (int b = 1; b < lines; b++) {
+            heads.add(new Head("b" + b, b, master.commit, new TreeMap<>(first), master.tree));
+        }
+        while (made < commits) {
+            if (shape == Shape.CRISS_CROSS) {
+                Head a = heads.get(0), b = heads.get(1);
+                if (a.commit != b.commit && commits - made >= 4) {
+                    Head before = a.copy();
+                    commit(a, b);
+                    commit(b, before);
+                }
+                commit(a, null);
+                commit(b, null);
+            } else {
+                commit(heads.get(made % heads.size()), null);
+            }
+        }
+
+        Repository.Branch table = repo.session().branches();
+        for (Head h : heads) {
+            table.branchMap.put(h.name, h.commit.getSha1());
+        }
+        repo.session().branchesChanged();
+        repo.commits.repack(true);
+        repo.trees.repack(true);
+        repo.blobs.repack(true);
+        for (String f : master.files.keySet()) {
+            File dest = Utils.join(repo.cwd, f);
+            repo.blobs.copyTo(master.files.get(f), dest);
+            repo.index.update(dest, master.files.get(f));
+        }
+        repo.save();
+        return repo;
+    }
+
+    /** Give H a new commit, changing CHURN of its files, that also merges
+     *  OTHER, taking its share of the files, if that is not null.  Does
+     *  nothing once COMMITS are made. */
+    private void commit(Head h, Head other) {
+        if (made == commits) {
+            return;
+        }
+        made += 1;
+        if (other != null) {
+            for (int i = other.line; i < files; i += lines) {
+                String f = name(i);
+                if (!other.files.get(f).equals(h.files.put(f, other.files.get(f)))) {
+                    h.tree = null;
+                }
+            }
+        }
+        int share = (files - h.line + lines - 1) / lines;
+        for (int k = 0; k < churn && made > 1; k++) {
+            h.files.put(name(h.line + lines * random.nextInt(share)), blob());
+            h.tree = null;
+        }
+        if (h.tree == null) {
+            h.tree = Tree.write(repo.trees, h.files);
+        }
+        Commit c = other == null
+                ? new Commit(h.commit, "commit " + made)
+                : new Commit(h.commit, other.commit, "merge " + made);
+        c.fileMap = new PathMap(repo.trees, h.tree);
+        time += TICK;
+        c.timestamp = new Date(time);
+        c.safeCommit(repo);
+        h.commit = c;
+    }
+
+    /** Store SIZE new random bytes, in lines, as a blob and return its id. */
+    private String blob() {
+        byte[] contents = new byte[size];
+        for (int k = 0; k < size; k++) {
+            contents[k] = k % 64 == 63 ? (byte) '\n' : (byte) ('a' + random.nextInt(26));
+        }
+        String id = Utils.sha1(contents);
+        repo.blobs.write(id, contents);
+        return id;
+    }
+
+    private String name(int i) {
+        return String.format("f%06d.txt", i);
+    }
+}
@@ -1,9 +1,18 @@
 package gitlet;
 
 import java.io.File;
-import java.util.List;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
 
-import static gitlet.Repository.*;
 import static gitlet.Utils.*;
 
 
@@ -11,113 +20,255 @@ import static gitlet.Utils.*;
  *  @author Luna Tian
  */
 public class Main {
-    /** Usage: java gitlet.Main ARGS, where ARGS contains
+
+    /** The current working directory. */
+    static final File CWD = new File(System.getProperty("user.dir"));
+
+    /** Usage: java gitlet.Main [--trace[=FILE]] ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2>....
+     *  handed to the Daemon instead if one serves this directory.
+     *  GITLET_TRACE, if set, adds --trace (when it is 1) or --trace=FILE.
      */
 
     public static void main(String[] args) {
-        if (args.length == 0) {
-            exitWithError("Please enter a command.");
+        String trace = System.getenv("GITLET_TRACE");
+        if (trace != null && !trace.isEmpty()
+                && (args.length == 0 || !args[0].startsWith("--trace"))) {
+            String[] traced = new String[args.length + 1];
+            traced[0] = trace.equals("1")
+                ? "--trace" : "--trace=" + new File(trace).getAbsolutePath();
+            System.arraycopy(args, 0, traced, 1, args.length);
+            args = traced;
+        } else if (args.length > 0 && args[0].startsWith("--trace=")) {
+            args = args.clone();
+            args[0] = "--trace=" + new File(args[0].substring(8)).getAbsolutePath();
         }
-        String firstArg = args[0];
-        if (!GITLET_DIR.exists() && !firstArg.equals("init")) {
-            exitWithError("Not in an initialized Gitlet directory.");
+        int code = Daemon.forward(args);
+        if (code > 0) {
+            System.exit(code);
+        } else if (code < 0) {
+            run(null, args, System.out, System.err);
+        }
+    }
+
+    /** run the command in ARGS on REPO, or on the repository in CWD if REPO
+     *  is null, printing its output, or the message of the GitletException
+     *  that ended it, to OUT.  a leading --trace prints the Trace of the
+     *  command to ERR, and --trace=FILE appends it to FILE */
+    static void run(Repository repo, String[] args, PrintStream out, PrintStream err) {
+        String trace = null;
+        if (args.length > 0 && (args[0].equals("--trace") || args[0].startsWith("--trace="))) {
+            trace = args[0];
+            args = Arrays.copyOfRange(args, 1, args.length);
+            Trace.begin();
         }
+        try {
+            if (args.length == 0) {
+                throw error("Please enter a command.");
+            }
+            if (repo == null && !args[0].equals("init")) {
+                repo = Repository.open(CWD);
+            }
+            dispatch(repo, args, out);
+        } catch (GitletException excp) {
+            out.println(excp.getMessage());
+        } finally {
+            if (repo != null) {
+                repo.save();
+            }
+            if (trace != null) {
+                report(trace, Trace.finish(args), err);
+            }
+        }
+    }
+
+    /** print the trace REPORT to ERR for the option TRACE, or append it to
+     *  the file TRACE names */
+    private static void report(String trace, String report, PrintStream err) {
+        if (trace.equals("--trace")) {
+            err.println(report);
+            return;
+        }
+        try {
+            Files.writeString(Paths.get(trace.substring(8)), report + "\n", StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            err.println("Cannot write the trace: " + excp.getMessage());
+        }
+    }
+
+    private static void dispatch(Repository repo, String[] args, PrintStream out) {
+        String firstArg = args[0];
         switch(firstArg) {
             case "init":
                 validNumArgs(args, 1);
-                Repository.setupInit();
+                Repository.init(CWD);
                 break;
             case "add":
                 validNumArgs(args, 2);
-                Repository.addFile(args[1]);
+                repo.addFile(args[1]);
                 break;
             case "commit":
                 validNumArgs(args, 2);
-                Repository.commit(args[1]);
+                repo.commit(args[1]);
                 break;
             case "rm":
                 validNumArgs(args, 2);
-                Repository.remove(args[1]);
+                repo.remove(args[1]);
                 break;
             case "checkout":
                 if (args.length == 3) {                 //redundant version, need reorganize;
-                    Repository.checkout(args[1], args[2]);
+                    repo.checkout(args[1], args[2]);
                 } else if (args.length == 4) {
-                    Repository.checkout(args[1], args[2], args[3]);
+                    repo.checkout(args[1], args[2], args[3]);
                 } else if (args.length == 2) {
-                    Repository.checkout(args[1]);
+                    repo.checkout(args[1]);
                 } else {
-                    exitWithError("Incorrect operands.");
+                    throw error("Incorrect operands.");
                 }
                 break;
             case "log":
-                validNumArgs(args, 1);
-                Repository.printLog(currCom());
+                log(repo, args, out);
                 break;
             case "global-log":
                 validNumArgs(args, 1);
-                Repository.printAllLog();
+                repo.printAllLog(out);
                 break;
             case "find":
                 validNumArgs(args, 2);
-                Repository.find(args[1]);
+                for (String id : repo.find(args[1])) {
+                    out.println(id);
+                }
                 break;
             case "status":
                 validNumArgs(args, 1);
-                Repository.status();
+                repo.status(out);
                 break;
             case "branch":
                 validNumArgs(args, 2);
-                Branch.addBranch(args[1]);
+                repo.addBranch(args[1]);
                 break;
             case "rm-branch":
                 validNumArgs(args, 2);
-                Branch.rmBranch(args[1]);
+                repo.rmBranch(args[1]);
                 break;
             case "reset":
                 validNumArgs(args, 2);
-                Repository.reset(args[1]);
+                repo.reset(args[1]);
                 break;
             case "merge":
                 validNumArgs(args, 2);
-                Repository.merge(args[1]);
+                repo.merge(args[1]);
                 break;
             case "add-remote":
                 validNumArgs(args, 3);
-                Repository.addremote(args[1], args[2]);
+                repo.addremote(args[1], args[2]);
+                break;
+            case "add-alternate":
+                validNumArgs(args, 2);
+                repo.addAlternate(args[1]);
                 break;
             case "rm-remote":
                 validNumArgs(args, 2);
-                Repository.rmremote(args[1]);
+                repo.rmremote(args[1]);
                 break;
             case "push":
                 validNumArgs(args, 3);
-                Repository.push(args[1], args[2]);
+                repo.push(args[1], args[2]);
                 break;
             case "fetch":
+                if (args.length == 4 && args[1].equals("--partial")) {
+                    repo.fetch(args[2], args[3], true);
+                    break;
+                }
                 validNumArgs(args, 3);
-                Repository.fetch(args[1], args[2]);
+                repo.fetch(args[1], args[2]);
                 break;
             case "pull":
                 validNumArgs(args, 3);
-                Repository.pull(args[1], args[2]);
+                repo.pull(args[1], args[2]);
+                break;
+            case "gc":
+                validNumArgs(args, 1);
+                repo.gc();
+                break;
+            case "bundle":
+                if (args.length == 4 && args[1].equals("create")) {
+                    repo.bundleCreate(args[2], args[3]);
+                } else if (args.length == 3 && args[1].equals("unbundle")) {
+                    repo.unbundle(args[2]);
+                } else {
+                    throw error("Incorrect operands.");
+                }
+                break;
+            case "daemon":
+                if (args.length == 2 && args[1].equals("stop")) {
+                    /* a running daemon answers this itself */
+                    throw error("No daemon is running.");
+                }
+                validNumArgs(args, 1);
+                Daemon.serve(repo);
                 break;
             default:
-                exitWithError("No command with that name exists.");
+                throw error("No command with that name exists.");
+        }
+    }
+
+    /** log [-n N | --max-count=N] [--since=DATE] [--until=DATE], where a
+     *  DATE is yyyy-MM-dd or yyyy-MM-ddTHH:mm[:ss] in the local time zone;
+     *  each option may also take its value as the next argument */
+    private static void log(Repository repo, String[] args, PrintStream out) {
+        int max = Integer.MAX_VALUE;
+        long since = Long.MIN_VALUE, until = Long.MAX_VALUE;
+        for (int i = 1; i < args.length; i++) {
+            String opt = args[i], value;
+            int eq = opt.indexOf('=');
+            if (opt.startsWith("--") && eq > 0) {
+                value = opt.substring(eq + 1);
+                opt = opt.substring(0, eq);
+            } else if (i + 1 < args.length) {
+                value = args[++i];
+            } else {
+                throw error("Incorrect operands.");
+            }
+            switch (opt) {
+                case "-n":
+                case "--max-count":
+                    try {
+                        max = Integer.parseInt(value);
+                    } catch (NumberFormatException excp) {
+                        throw error("Incorrect operands.");
+                    }
+                    break;
+                case "--since":
+                    since = logDate(value, false);
+                    break;
+                case "--until":
+                    until = logDate(value, true);
+                    break;
+                default:
+                    throw error("Incorrect operands.");
+            }
         }
+        repo.printLog(out, max < 0 ? Integer.MAX_VALUE : max, since, until);
     }
 
-    public static void exitWithError(String message) {    //@source: lab6 Util.exitWithError
-        if (message != null && !message.equals("")) {
-            System.out.println(message);
+    /** return DATE as milliseconds: its first millisecond, or its last if
+     *  END is true and DATE has no time of day */
+    private static long logDate(String date, boolean end) {
+        try {
+            LocalDateTime time = date.indexOf('T') >= 0
+                ? LocalDateTime.parse(date)
+                : LocalDate.parse(date).atStartOfDay().plusDays(end ? 1 : 0).minusNanos(end ? 1 : 0);
+            return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException excp) {
+            throw error("Incorrect operands.");
         }
-        System.exit(0);
     }
 
     public static void validNumArgs(String[] args, int n) {
         if (args.length != n) {
-            exitWithError("Incorrect operands.");
+            throw error("Incorrect operands.");
         }
     }
 }
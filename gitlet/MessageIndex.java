@@ -0,0 +1,192 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/** A hash table on disk from commit messages to the CommitGraph positions
+ *  of the commits that have them, so find looks at the few commits whose
+ *  message hashes alike instead of at every commit.
+ *
+ *  The file is "GMIX", version, the capacity (a power of two), the number
+ *  of entries, then one 8-byte slot per capacity: the hash of a message
+ *  and one more than a position, 0 for an empty slot.  Entries are added
+ *  in place by linear probing through a writable mapping; the table is
+ *  written again at twice the size once it is half full.  The CommitGraph
+ *  owns it and rebuilds it from its messages if the count disagrees.
+ *
+ *  @author Luna, Tian
+ */
+class MessageIndex {
+
+    /** Magic number and version of the file. */
+    static final int MAGIC = 0x474d4958, VERSION = 1;
+
+    /** Length of the header, and of one slot. */
+    private static final int HEADER = 16, SLOT = 8;
+
+    /** Capacity of a new table. */
+    private static final int INITIAL = 1024;
+
+    /** The table file. */
+    private final File file;
+
+    /** The mapped table, or null if it is not loaded. */
+    private MappedByteBuffer table;
+
+    /** Number of slots in TABLE. */
+    private int capacity;
+
+    MessageIndex(File file) {
+        this.file = file;
+    }
+
+    /** Return the number of entries, or -1 if there is no usable table. */
+    int count() {
+        return load() ? table.getInt(12) : -1;
+    }
+
+    /** Start over with an empty table able to hold EXPECTED entries. */
+    void clear(int expected) {
+        write(new int[0], new int[0], expected);
+    }
+
+    /** Record that the commit at POS has MESSAGE. */
+    void add(String message, int pos) {
+        if (!load()) {
+            clear(0);
+        }
+        int count = table.getInt(12);
+        if ((count + 1) * 2 > capacity) {
+            grow();
+        }
+        int hash = hash(message);
+        int slot = hash & (capacity - 1);
+        while (table.getInt(HEADER + slot * SLOT + 4) != 0) {
+            slot = (slot + 1) & (capacity - 1);
+        }
+        table.putInt(HEADER + slot * SLOT, hash);
+        table.putInt(HEADER + slot * SLOT + 4, pos + 1);
+        table.putInt(12, table.getInt(12) + 1);
+    }
+
+    /** Return the positions of the commits whose message may be MESSAGE;
+     *  the caller compares the messages themselves. */
+    int[] candidates(String message) {
+        if (!load()) {
+            return new int[0];
+        }
+        int hash = hash(message);
+        int[] result = new int[4];
+        int n = 0;
+        for (int slot = hash & (capacity - 1); ; slot = (slot + 1) & (capacity - 1)) {
+            int pos = table.getInt(HEADER + slot * SLOT + 4);
+            if (pos == 0) {
+                break;
+            }
+            if (table.getInt(HEADER + slot * SLOT) == hash) {
+                if (n == result.length) {
+                    result = Arrays.copyOf(result, n * 2);
+                }
+                result[n++] = pos - 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Forget the mapping, so the table is read again when next used. */
+    void refresh() {
+        table = null;
+    }
+
+    /** Map FILE, if that has not been done yet, returning false if it is
+     *  missing or unreadable. */
+    private boolean load() {
+        if (table != null) {
+            return true;
+        }
+        if (!file.isFile() || file.length() < HEADER) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            table = ch.map(FileChannel.MapMode.READ_WRITE, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        capacity = table.getInt(8);
+        if (table.getInt(0) != MAGIC || table.getInt(4) != VERSION
+                || Integer.bitCount(capacity) != 1
+                || table.capacity() != HEADER + (long) capacity * SLOT) {
+            table = null;
+            return false;
+        }
+        return true;
+    }
+
+    /** Write the table again at twice its capacity. */
+    private void grow() {
+        int count = table.getInt(12);
+        int[] hashes = new int[count], positions = new int[count];
+        int n = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int pos = table.getInt(HEADER + slot * SLOT + 4);
+            if (pos != 0 && n < count) {
+                hashes[n] = table.getInt(HEADER + slot * SLOT);
+                positions[n++] = pos;
+            }
+        }
+        write(Arrays.copyOf(hashes, n), Arrays.copyOf(positions, n), capacity);
+    }
+
+    /** Write a table of the entries with HASHES and (one more than)
+     *  POSITIONS, with room for twice EXPECTED, and map it. */
+    private void write(int[] hashes, int[] positions, int expected) {
+        int cap = INITIAL;
+        while (cap < 2 * Math.max(expected, hashes.length) + 2) {
+            cap *= 2;
+        }
+        int[] slots = new int[cap * 2];
+        for (int i = 0; i < hashes.length; i++) {
+            int slot = hashes[i] & (cap - 1);
+            while (slots[slot * 2 + 1] != 0) {
+                slot = (slot + 1) & (cap - 1);
+            }
+            slots[slot * 2] = hashes[i];
+            slots[slot * 2 + 1] = positions[i];
+        }
+        try {
+            File tmp = File.createTempFile("tmp-", ".find", file.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(cap);
+                out.writeInt(hashes.length);
+                for (int s : slots) {
+                    out.writeInt(s);
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        table = null;
+        load();
+    }
+
+    /** Return the hash of MESSAGE, spread so that neighbouring slots are
+     *  not filled by messages that differ only at the end. */
+    private static int hash(String message) {
+        int h = message.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,1268 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+/** A directory of objects named by their SHA-1 id, such as .gitlet/commit
+ *  or .gitlet/blob_files.  New objects are written loose, one file per id, encoded
+ *  with the Codec chosen in the repository's settings; raw objects from
+ *  older repositories stay readable, and upgrade() gives them headers.
+ *  Once more than gc.auto (see Settings; LOOSE_LIMIT unless set) loose
+ *  objects pile up they are moved into a Pack under the "pack"
+ *  subdirectory, and lookups go through the packs' indexes instead of the
+ *  file system.
+ *
+ *  A blob may instead be stored as a Delta against an earlier version of
+ *  the same file, at most MAX_DEPTH deltas away from a full copy.  Recently
+ *  rebuilt contents are cached, so reading a chain costs one delta per
+ *  version rather than rebuilding it from the full copy each time.
+ *
+ *  A repository's "alternates" file may name the .gitlet directories of
+ *  other repositories, one per line.  An object missing here is looked for
+ *  in the same store of each of those, and of their alternates in turn,
+ *  and read from there; nothing is ever written to them.  So contains is
+ *  true of it, copyAll and fetch skip it, and a delta here may have its
+ *  base there.  ids, repack and the like see only this store's own objects.
+ *
+ *  A partial fetch leaves blobs behind in the remote, whose .gitlet
+ *  directory it adds to the "promisors" file.  An object missing here and
+ *  from the alternates is copied here from the first promisor that has
+ *  it, the first time it is read; prefetch copies many at once.
+ *
+ *  @author Luna, Tian
+ */
+class ObjectStore {
+
+    /** Loose objects allowed before autoPack packs them, unless gc.auto
+     *  says otherwise. */
+    static final int LOOSE_LIMIT = 256;
+
+    /** Packs allowed before autoPack merges them into one. */
+    static final int PACK_LIMIT = 16;
+
+    /** The repository format, in core.format, from which every object
+     *  has a codec header.  Older repositories are upgraded to it when
+     *  opened (see Repository). */
+    static final int FORMAT = 1;
+
+    /** Objects larger than this always stay loose. */
+    static final int BIG_OBJECT = 16 << 20;
+
+    /** Longest chain of deltas allowed before an object is stored whole. */
+    static final int MAX_DEPTH = 10;
+
+    /** Bytes of rebuilt contents kept in the cache. */
+    private static final long CACHE_BYTES = 64L << 20;
+
+    /** Objects copyAll copies at once. */
+    private static final int COPY_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    /** Most alternates followed, through alternates of alternates. */
+    private static final int MAX_ALTERNATE_DEPTH = 5;
+
+    /** Largest pack repack will write. */
+    private static final long MAX_PACK = 1L << 30;
+
+    /** The directory holding loose objects. */
+    private final File dir;
+
+    /** The directory holding packs. */
+    private final File packDir;
+
+    /** Open packs, or null until first needed. */
+    private volatile List<Pack> packs;
+
+    /** When packDir last changed as of opening PACKS. */
+    private volatile long packsStamp;
+
+    /** The alternates file of the repository this store is in. */
+    private final File alternatesFile;
+
+    /** How many alternates away from the repository's own store this is. */
+    private final int remove;
+
+    /** The promisors file of the repository this store is in. */
+    private final File promisorsFile;
+
+    /** Stores searched for objects that are not here, or null until first
+     *  needed, and when the alternates file last changed as of reading it. */
+    private volatile List<ObjectStore> alternates;
+    private volatile long alternatesStamp;
+
+    /** Stores copied from on reading an object that is not here or in an
+     *  alternate, or null until first needed, and when the promisors file
+     *  last changed as of reading it. */
+    private volatile List<ObjectStore> promisors;
+    private volatile long promisorsStamp;
+
+    /** The settings of the repository this store is in. */
+    private final Settings settings;
+
+    /** True if this store's repository is older than FORMAT, or null
+     *  until read. */
+    private volatile Boolean legacy;
+
+    /** Codec and compression level for new objects, or null until first
+     *  needed. */
+    private Codec codec;
+    private int level;
+
+    /** Recently rebuilt object contents by id, least recently used first. */
+    private final LinkedHashMap<String, byte[]> cache =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Total length of the contents in CACHE. */
+    private long cached;
+
+    ObjectStore(File dir) {
+        this(dir, 0);
+    }
+
+    /** The store in DIR, REMOVE alternates away from the one first asked. */
+    private ObjectStore(File dir, int remove) {
+        this.dir = dir;
+        this.remove = remove;
+        this.packDir = Utils.join(dir, "pack");
+        this.alternatesFile = Utils.join(dir.getParentFile(), "alternates");
+        this.promisorsFile = Utils.join(dir.getParentFile(), "promisors");
+        this.settings = new Settings(Utils.join(dir.getParentFile(), "settings"));
+    }
+
+    File dir() {
+        return dir;
+    }
+
+    /** Return the loose file for ID, which may not exist. */
+    File loose(String id) {
+        return Utils.join(dir, id);
+    }
+
+    /** Return the loose file to write ID to, creating the directory if
+     *  this store is new to an older repository. */
+    private File created(String id) {
+        if (!dir.isDirectory()) {
+            dir.mkdirs();
+        }
+        return loose(id);
+    }
+
+    /** True iff the object ID is stored here or in an alternate. */
+    boolean contains(String id) {
+        return holder(id) != null;
+    }
+
+    /** Return the store holding object ID itself, this one or an
+     *  alternate, or null if none does. */
+    private ObjectStore holder(String id) {
+        if (loose(id).isFile() || findPacked(id) != null) {
+            return this;
+        }
+        for (ObjectStore alt : alternates()) {
+            ObjectStore found = alt.holder(id);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    /** Return the alternate holding object ID, which is not here, or this
+     *  store once ID has been copied here from a promisor.  Throws
+     *  IllegalArgumentException if none of them has it. */
+    private ObjectStore elsewhere(String id) {
+        for (ObjectStore alt : alternates()) {
+            ObjectStore found = alt.holder(id);
+            if (found != null) {
+                return found;
+            }
+        }
+        for (ObjectStore promisor : promisors()) {
+            if (promisor.contains(id)) {
+                copyAll(promisor, List.of(id));
+                return this;
+            }
+        }
+        throw new IllegalArgumentException("no object " + id);
+    }
+
+    /** Copy here, all at once, those of the objects IDS that are neither
+     *  here nor in an alternate but that a promisor has, so that reading
+     *  them one at a time afterwards does not go to a promisor each time. */
+    void prefetch(Collection<String> ids) {
+        List<ObjectStore> from = promisors();
+        if (from.isEmpty()) {
+            return;
+        }
+        List<String> wanted = new ArrayList<>();
+        for (String id : ids) {
+            if (!contains(id)) {
+                wanted.add(id);
+            }
+        }
+        for (ObjectStore promisor : from) {
+            List<String> found = new ArrayList<>(), rest = new ArrayList<>();
+            for (String id : wanted) {
+                (promisor.contains(id) ? found : rest).add(id);
+            }
+            copyAll(promisor, found);
+            wanted = rest;
+        }
+    }
+
+    /** Return the stores named in the alternates file, reading it if that
+     *  has not been done yet. */
+    private List<ObjectStore> alternates() {
+        List<ObjectStore> result = alternates;
+        if (result == null) {
+            alternatesStamp = alternatesFile.lastModified();
+            result = remove < MAX_ALTERNATE_DEPTH ? listed(alternatesFile) : List.of();
+            alternates = result;
+        }
+        return result;
+    }
+
+    /** Return the stores named in the promisors file, reading it if that has
+     *  not been done yet.  Only a repository's own stores have promisors:
+     *  an alternate is never written to. */
+    private List<ObjectStore> promisors() {
+        List<ObjectStore> result = promisors;
+        if (result == null) {
+            promisorsStamp = promisorsFile.lastModified();
+            result = remove == 0 ? listed(promisorsFile) : List.of();
+            promisors = result;
+        }
+        return result;
+    }
+
+    /** Return the stores like this one in the .gitlet directories listed,
+     *  one per line, in LIST, if it exists. */
+    private List<ObjectStore> listed(File list) {
+        List<ObjectStore> result = new ArrayList<>();
+        if (list.isFile()) {
+            for (String line : Utils.readContentsAsString(list).split("\n")) {
+                File other = Utils.join(line.trim(), dir.getName());
+                if (!line.isBlank() && other.isDirectory() && !other.equals(dir)) {
+                    result.add(new ObjectStore(other, remove + 1));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the contents of object ID. */
+    byte[] read(String id) {
+        Trace.Span span = Trace.start(Trace.Op.STORE_READ);
+        byte[] result = null;
+        try (InputStream in = open(id)) {
+            result = in.readAllBytes();
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            Trace.end(span, result == null ? 0 : result.length);
+        }
+    }
+
+    /** Return a stream of the decoded contents of object ID. */
+    InputStream open(String id) {
+        try {
+            InputStream in = openRaw(id);
+            long size = rawSize(id);
+            in.mark(Codec.HEADER);
+            Codec c = codec(id, in.readNBytes(Codec.HEADER), size);
+            if (c == null) {
+                in.reset();
+                return in;
+            } else if (c == Codec.DELTA) {
+                byte[] result;
+                try (InputStream delta = c.decoder(in)) {
+                    delta.read();
+                    String base = Utils.toHex(delta.readNBytes(Pack.ID_BYTES));
+                    result = Delta.apply(contents(base), delta, length(id));
+                }
+                remember(id, result);
+                return new ByteArrayInputStream(result);
+            }
+            return c.decoder(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a stream of object ID as stored, which supports mark. */
+    private InputStream openRaw(String id) throws IOException {
+        File f = loose(id);
+        if (f.isFile()) {
+            return new BufferedInputStream(Files.newInputStream(f.toPath()), Utils.BUFFER_SIZE);
+        }
+        Object[] where = findPacked(id);
+        if (where == null) {
+            return elsewhere(id).openRaw(id);
+        }
+        return new ByteArrayInputStream(((Pack) where[0]).read((Integer) where[1]));
+    }
+
+    /** Return the stored length of object ID. */
+    long rawSize(String id) {
+        File f = loose(id);
+        if (f.isFile()) {
+            return f.length();
+        }
+        Object[] where = findPacked(id);
+        if (where == null) {
+            return elsewhere(id).rawSize(id);
+        }
+        return ((Pack) where[0]).size((Integer) where[1]);
+    }
+
+    /** Return the codec of object ID, whose SIZE stored bytes begin with
+     *  HEADER, or null if it is raw contents from before objects had
+     *  headers.  Only the store of a repository older than FORMAT may
+     *  hold raw objects, and there what looks like a header is one only if
+     *  the object's bytes do not hash to ID, as a raw object's do.  Throws
+     *  IllegalArgumentException if an object that must have a header has
+     *  none. */
+    private Codec codec(String id, byte[] header, long size) {
+        Codec c = Codec.of(header, size);
+        ObjectStore from = anyLegacy() ? holder(id) : this;
+        if (from == null || !from.legacy()) {
+            if (c == null) {
+                throw new IllegalArgumentException("corrupt object " + id);
+            }
+            return c;
+        }
+        return c == null || from.hashesTo(id) ? null : c;
+    }
+
+    /** Return true if this store's repository is older than FORMAT, so
+     *  that raw objects may be in it. */
+    boolean legacy() {
+        if (legacy == null) {
+            legacy = settings.getInt("core.format", 0) < FORMAT;
+        }
+        return legacy;
+    }
+
+    /** Return true if this store or any of its alternates is legacy(). */
+    private boolean anyLegacy() {
+        if (legacy()) {
+            return true;
+        }
+        for (ObjectStore alt : alternates()) {
+            if (alt.anyLegacy()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return true if the stored bytes of object ID hash to ID, as those
+     *  of a raw object do and those of an encoded one never do. */
+    private boolean hashesTo(String id) {
+        File f = loose(id);
+        return (f.isFile() ? Utils.sha1Contents(f) : Utils.sha1(readRaw(id))).equals(id);
+    }
+
+    /** Return true if object ID is stored raw, without a header. */
+    boolean raw(String id) {
+        return anyLegacy() && codecOf(id) == null;
+    }
+
+    /** Give each raw object here a header, storing it again loose, and
+     *  merge the packs if any held one.  Encoded objects are told apart by
+     *  their bytes, which never hash to their id.  Everything written is on
+     *  the disk before this returns. */
+    void upgrade() {
+        TreeSet<String> rewritten = new TreeSet<>();
+        for (Pack p : packs()) {
+            for (int i = 0; i < p.count(); i++) {
+                byte[] bytes = p.read(i);
+                if (Utils.sha1(bytes).equals(p.id(i))) {
+                    write(p.id(i), new ByteArrayInputStream(bytes), bytes.length);
+                    rewritten.add(p.id(i));
+                }
+            }
+        }
+        boolean packed = !rewritten.isEmpty();
+        for (String id : looseIds()) {
+            File f = loose(id);
+            if (!rewritten.contains(id) && Utils.sha1Contents(f).equals(id)) {
+                try (InputStream in = Files.newInputStream(f.toPath())) {
+                    write(id, in, f.length());
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+                rewritten.add(id);
+            }
+        }
+        sync(rewritten);
+        if (packed) {
+            repack(true);
+        }
+    }
+
+    /** Return the codec object ID was stored with, or null if it is raw. */
+    private Codec codecOf(String id) {
+        try (InputStream in = openRaw(id)) {
+            return codec(id, in.readNBytes(Codec.HEADER), rawSize(id));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the decoded length of object ID. */
+    long length(String id) {
+        try (InputStream in = openRaw(id)) {
+            byte[] header = in.readNBytes(Codec.HEADER);
+            if (codec(id, header, rawSize(id)) == null) {
+                return rawSize(id);
+            }
+            return ByteBuffer.wrap(header).getLong(Codec.HEADER - 8);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the number of deltas between object ID and a full copy. */
+    private int depth(String id) {
+        try (InputStream in = openRaw(id)) {
+            Codec c = codec(id, in.readNBytes(Codec.HEADER), rawSize(id));
+            if (c != Codec.DELTA) {
+                return 0;
+            }
+            try (InputStream delta = c.decoder(in)) {
+                return delta.read();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the base of delta object ID, or null if it is not a delta. */
+    String baseOf(String id) {
+        try (InputStream in = openRaw(id)) {
+            Codec c = codec(id, in.readNBytes(Codec.HEADER), rawSize(id));
+            if (c != Codec.DELTA) {
+                return null;
+            }
+            try (InputStream delta = c.decoder(in)) {
+                delta.read();
+                return Utils.toHex(delta.readNBytes(Pack.ID_BYTES));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the contents of object ID, from the cache if possible. */
+    private byte[] contents(String id) {
+        byte[] result = cache.get(id);
+        if (result == null) {
+            result = read(id);
+            remember(id, result);
+        }
+        return result;
+    }
+
+    /** Cache CONTENTS as those of ID, evicting the least recently used. */
+    private void remember(String id, byte[] contents) {
+        if (contents.length > CACHE_BYTES / 4 || cache.containsKey(id)) {
+            return;
+        }
+        cache.put(id, contents);
+        cached += contents.length;
+        Iterator<byte[]> old = cache.values().iterator();
+        while (cached > CACHE_BYTES) {
+            cached -= old.next().length;
+            old.remove();
+        }
+    }
+
+    /** Return object ID as stored, header and all. */
+    byte[] readRaw(String id) {
+        File f = loose(id);
+        if (f.isFile()) {
+            return Utils.readContents(f);
+        }
+        Object[] where = findPacked(id);
+        if (where == null) {
+            return elsewhere(id).readRaw(id);
+        }
+        return ((Pack) where[0]).read((Integer) where[1]);
+    }
+
+    /** Write object ID as stored, header and all, to OUT.  A loose one is
+     *  streamed; a packed one is at most BIG_OBJECT bytes. */
+    void writeRaw(String id, OutputStream out) throws IOException {
+        File f = loose(id);
+        if (!f.isFile() && findPacked(id) == null) {
+            elsewhere(id).writeRaw(id, out);
+            return;
+        }
+        Trace.Span span = Trace.start(Trace.Op.STORE_READ);
+        try {
+            if (f.isFile()) {
+                Files.copy(f.toPath(), out);
+            } else {
+                out.write(readRaw(id));
+            }
+        } finally {
+            Trace.end(span, rawSize(id));
+        }
+    }
+
+    /** Return object ID deserialized and cast to EXPECTEDCLASS. */
+    <T extends Serializable> T readObject(String id, Class<T> expectedClass) {
+        try (ObjectInputStream in = new ObjectInputStream(open(id))) {
+            return expectedClass.cast(in.readObject());
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Store CONTENTS as object ID, unless it is already present. */
+    void write(String id, byte[] contents) {
+        if (!contains(id)) {
+            write(id, new ByteArrayInputStream(contents), contents.length);
+        } else {
+            freshen(id);
+        }
+    }
+
+    /** Store the contents of SOURCE as object ID, unless it is already
+     *  present, without reading SOURCE into memory. */
+    void write(String id, File source) {
+        if (!contains(id)) {
+            try (InputStream in = Files.newInputStream(source.toPath())) {
+                write(id, in, source.length());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        } else {
+            freshen(id);
+        }
+    }
+
+    /** Store the contents of SOURCE as object ID, unless it is already
+     *  present.  If it is small enough, and a delta against BASE (which may
+     *  be null) is much smaller than it, store that delta instead. */
+    void writeDelta(String id, File source, String base) {
+        if (contains(id)) {
+            freshen(id);
+            return;
+        }
+        if (base != null && !base.equals(id) && source.length() <= BIG_OBJECT
+                && contains(base) && length(base) <= BIG_OBJECT) {
+            int depth = depth(base) + 1;
+            if (depth <= MAX_DEPTH) {
+                byte[] target = Utils.readContents(source);
+                byte[] delta = Delta.create(contents(base), target);
+                if (delta != null) {
+                    settings();
+                    Trace.Span span = Trace.start(Trace.Op.STORE_WRITE);
+                    File tmp = null;
+                    try {
+                        tmp = temporary();
+                        try (OutputStream out = Codec.DELTA.open(new BufferedOutputStream(
+                                Files.newOutputStream(tmp.toPath())), target.length, level)) {
+                            out.write(depth);
+                            out.write(Utils.fromHex(base));
+                            out.write(delta);
+                        }
+                        install(tmp, id);
+                    } catch (IOException excp) {
+                        throw new IllegalArgumentException(excp.getMessage());
+                    } finally {
+                        if (tmp != null) {
+                            tmp.delete();
+                        }
+                        Trace.end(span, target.length);
+                    }
+                    remember(id, target);
+                    return;
+                }
+            }
+        }
+        write(id, source);
+    }
+
+    /** Mark object ID, which a command wanted to write and found already
+     *  stored, as just written, so that gc gives it the grace period of a
+     *  new one.  A packed one is stored again loose, as its pack records
+     *  when each of its objects was written and is never changed, and so
+     *  is a loose one that copyAll hard-linked, so as not to touch the
+     *  file of the other repository; one in an alternate is left alone. */
+    private void freshen(String id) {
+        File f = loose(id);
+        if (f.isFile() && links(f) == 1) {
+            f.setLastModified(System.currentTimeMillis());
+            return;
+        }
+        Object[] where = f.isFile() ? null : findPacked(id);
+        if (where == null && !f.isFile()) {
+            return;
+        }
+        File tmp = null;
+        try {
+            tmp = temporary();
+            if (where == null) {
+                Utils.copy(f, tmp);
+            } else {
+                Files.write(tmp.toPath(), ((Pack) where[0]).read((Integer) where[1]));
+            }
+            install(tmp, id);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /** Return when the loose object F was last written here, in
+     *  milliseconds: the later of its modification time and, where the
+     *  file system keeps one, its change time.  copyAll's hard links keep
+     *  the modification time of the other repository, but set the change
+     *  time, so a linked object is as new as the link. */
+    private static long written(File f) {
+        long time = f.lastModified();
+        try {
+            FileTime changed = (FileTime) Files.getAttribute(f.toPath(), "unix:ctime");
+            return Math.max(time, changed.toMillis());
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException excp) {
+            return time;
+        }
+    }
+
+    /** Return how many names the file F has, or 1 where the file system
+     *  does not say. */
+    private static int links(File f) {
+        try {
+            return (Integer) Files.getAttribute(f.toPath(), "unix:nlink");
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException excp) {
+            return 1;
+        }
+    }
+
+    /** Encode the LENGTH bytes from IN as loose object ID. */
+    private void write(String id, InputStream in, long length) {
+        settings();
+        Trace.Span span = Trace.start(Trace.Op.STORE_WRITE);
+        File tmp = null;
+        try {
+            tmp = temporary();
+            try (OutputStream out = codec.open(new BufferedOutputStream(
+                    Files.newOutputStream(tmp.toPath()), Utils.BUFFER_SIZE), length, level)) {
+                Utils.copy(in, out);
+            }
+            install(tmp, id);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            Trace.end(span, length);
+        }
+    }
+
+    /** Force those of the objects IDS that are loose here to the disk,
+     *  with the directory naming them.  Packs are forced when written. */
+    void sync(Collection<String> ids) {
+        boolean any = false;
+        for (String id : ids) {
+            File f = loose(id);
+            if (f.isFile()) {
+                Utils.fsync(f);
+                any = true;
+            }
+        }
+        if (any) {
+            Utils.fsync(dir);
+        }
+    }
+
+    /** Return a new temporary file in this store's directory, to write an
+     *  object to before install puts it in place. */
+    private File temporary() throws IOException {
+        if (!dir.isDirectory()) {
+            dir.mkdirs();
+        }
+        return File.createTempFile("tmp-", ".obj", dir);
+    }
+
+    /** Give TMP, holding the whole of object ID, the name of ID, so that a
+     *  write cut short never leaves an object that contains counts. */
+    private void install(File tmp, String id) throws IOException {
+        Files.move(tmp.toPath(), loose(id).toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Return how many loose objects this store may hold before autoPack
+     *  packs them. */
+    private int looseLimit() {
+        return Math.max(1, settings.getInt("gc.auto", LOOSE_LIMIT));
+    }
+
+    /** Read the codec and level for new objects, if not yet done. */
+    private void settings() {
+        if (codec == null) {
+            codec = Codec.byName(settings.get("core.codec", "deflate"));
+            level = settings.getInt("core.compression", Deflater.DEFAULT_COMPRESSION);
+        }
+    }
+
+    /** Store those of the objects IDS from SRC that are not here yet,
+     *  along with their delta bases, and force them to the disk before
+     *  returning.  Objects are copied as stored, without decoding them.
+     *  More than looseLimit() of them, which autoPack would pack anyway, go
+     *  straight into new packs.  Fewer are copied loose, several at a
+     *  time: objects never change once written, so when SRC is on the same
+     *  file system a loose one is hard-linked rather than copied, and
+     *  otherwise the bytes move with FileChannel.transferTo.  A linked
+     *  object shares its file, and so its modification time, with SRC:
+     *  gc judges its age by written(), which the link makes new, and
+     *  freshen copies it rather than touch SRC's.  Either way a crash
+     *  leaves each object whole or absent, and no delta without its base. */
+    void copyAll(ObjectStore src, Collection<String> ids) {
+        TreeSet<String> needed = new TreeSet<>();
+        for (String id : ids) {
+            for (String next = id; next != null && !needed.contains(next) && !contains(next);
+                 next = src.baseOf(next)) {
+                needed.add(next);
+            }
+        }
+        if (needed.isEmpty()) {
+            return;
+        }
+        dir.mkdirs();
+        if (needed.size() > looseLimit()) {
+            packFrom(src, needed);
+        } else if (needed.size() == 1) {
+            copyChain(src, needed.first(), sameFileStore(src));
+        } else {
+            boolean link = sameFileStore(src);
+            ForkJoinPool pool = new ForkJoinPool(Math.min(COPY_THREADS, needed.size()));
+            try {
+                pool.submit(() -> needed.parallelStream().forEach(id -> copyChain(src, id, link)))
+                    .get();
+            } catch (InterruptedException | ExecutionException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            } finally {
+                pool.shutdown();
+            }
+        }
+        Utils.fsync(dir);
+    }
+
+    /** Write the objects IDS, sorted, from SRC into new packs here, as
+     *  repack does, except that objects too big to pack, and raw ones,
+     *  which need a header, are copied loose. */
+    private void packFrom(ObjectStore src, TreeSet<String> ids) {
+        List<String> chunk = new ArrayList<>();
+        long size = 0;
+        for (String id : ids) {
+            long length = src.rawSize(id);
+            if (length > BIG_OBJECT || src.raw(id)) {
+                copyChain(src, id, sameFileStore(src));
+                continue;
+            }
+            chunk.add(id);
+            size += length;
+            if (size >= MAX_PACK) {
+                syncPack(Pack.write(packDir, chunk, src, null));
+                chunk.clear();
+                size = 0;
+            }
+        }
+        if (!chunk.isEmpty()) {
+            syncPack(Pack.write(packDir, chunk, src, null));
+        }
+        Utils.fsync(packDir);
+        packs = null;
+    }
+
+    /** Force the pack PACKFILE, its index and its times to the disk. */
+    private static void syncPack(File packFile) {
+        Utils.fsync(packFile);
+        Utils.fsync(new File(packFile.getPath().replace(".pack", ".idx")));
+        if (Pack.timesFile(packFile).isFile()) {
+            Utils.fsync(Pack.timesFile(packFile));
+        }
+    }
+
+    /** Store object ID from SRC and the chain of delta bases under it that
+     *  is not here yet, bases first, hard-linking loose files if LINK. */
+    private void copyChain(ObjectStore src, String id, boolean link) {
+        List<String> chain = new ArrayList<>();
+        for (String next = id; next != null && !contains(next); next = src.baseOf(next)) {
+            chain.add(next);
+        }
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            Trace.Span span = Trace.start(Trace.Op.STORE_COPY);
+            File f = copyOne(src, chain.get(i), link);
+            Trace.end(span, f.length());
+        }
+    }
+
+    /** Store object NEXT from SRC, or SRC's alternate that holds it, here
+     *  as stored, hard-linking its loose file if LINK, and return the file
+     *  written, already on the disk.  A raw object from an older
+     *  repository is encoded instead, as every object here has a header. */
+    private File copyOne(ObjectStore src, String next, boolean link) {
+        ObjectStore from = src.holder(next);
+        if (from == null) {
+            throw new IllegalArgumentException("no object " + next);
+        }
+        File f = from.loose(next);
+        File dest = created(next);
+        if (from.raw(next)) {
+            try (InputStream in = from.openRaw(next)) {
+                write(next, in, from.rawSize(next));
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            Utils.fsync(dest);
+            return dest;
+        }
+        if (f.isFile() && link && Utils.link(f, dest)) {
+            return dest;
+        }
+        try {
+            File tmp = File.createTempFile("tmp-", ".obj", dir);
+            if (f.isFile()) {
+                Utils.copy(f, tmp);
+            } else {
+                Object[] where = from.findPacked(next);
+                try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+                    ((Pack) where[0]).writeTo((Integer) where[1], out);
+                }
+            }
+            Utils.fsync(tmp);
+            Files.move(tmp.toPath(), dest.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return dest;
+    }
+
+    /** Return somewhere to put objects arriving from a stream. */
+    Incoming incoming() {
+        return new Incoming();
+    }
+
+    /** Objects for this store arriving one at a time from a stream, such
+     *  as a bundle.  They go into new packs, or loose files if too big to
+     *  pack, under temporary names, and only join the store, all at once
+     *  and already on the disk, on install(). */
+    class Incoming {
+        /** The pack being written, or null. */
+        private Pack.Writer pack;
+
+        /** Packs sealed and waiting for install. */
+        private final List<Pack.Writer> sealed = new ArrayList<>();
+
+        /** Temporary files of big objects, and their ids. */
+        private final List<File> bigFiles = new ArrayList<>();
+        private final List<String> bigIds = new ArrayList<>();
+
+        /** Take object ID, the next LENGTH bytes of IN exactly as stored,
+         *  unless the store already has it. */
+        void add(String id, InputStream in, long length) throws IOException {
+            if (contains(id)) {
+                Utils.copy(in, OutputStream.nullOutputStream(), length);
+            } else if (length > BIG_OBJECT) {
+                dir.mkdirs();
+                File tmp = File.createTempFile("tmp-", ".obj", dir);
+                bigFiles.add(tmp);
+                bigIds.add(id);
+                try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                    Utils.copy(in, out, length);
+                }
+                Utils.fsync(tmp);
+            } else {
+                if (pack == null) {
+                    pack = new Pack.Writer(packDir);
+                }
+                pack.add(id, in, (int) length);
+                if (pack.size() >= MAX_PACK) {
+                    pack.seal();
+                    sealed.add(pack);
+                    pack = null;
+                }
+            }
+        }
+
+        /** Make everything taken part of the store. */
+        void install() {
+            if (pack != null) {
+                pack.seal();
+                sealed.add(pack);
+                pack = null;
+            }
+            try {
+                for (int i = 0; i < bigFiles.size(); i++) {
+                    Files.move(bigFiles.get(i).toPath(), loose(bigIds.get(i)).toPath(),
+                            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            for (Pack.Writer w : sealed) {
+                w.install();
+            }
+            if (!bigFiles.isEmpty()) {
+                Utils.fsync(dir);
+            }
+            if (!sealed.isEmpty()) {
+                Utils.fsync(packDir);
+            }
+            bigFiles.clear();
+            sealed.clear();
+            packs = null;
+        }
+
+        /** Throw away everything taken and not yet installed. */
+        void abort() {
+            if (pack != null) {
+                pack.abort();
+                pack = null;
+            }
+            for (Pack.Writer w : sealed) {
+                w.abort();
+            }
+            for (File f : bigFiles) {
+                f.delete();
+            }
+            sealed.clear();
+            bigFiles.clear();
+        }
+    }
+
+    /** True iff SRC's objects are on the same file system as this store's,
+     *  so they can be hard-linked here. */
+    private boolean sameFileStore(ObjectStore src) {
+        try {
+            return src.dir.isDirectory()
+                && Files.getFileStore(src.dir.toPath()).equals(Files.getFileStore(dir.toPath()));
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Write the decoded contents of object ID to DEST, creating or
+     *  overwriting it, without reading them into memory.  Loose objects
+     *  that need no decoding are copied with FileChannel.transferTo. */
+    void copyTo(String id, File dest) {
+        File f = loose(id);
+        if (!f.isFile() && findPacked(id) == null) {
+            elsewhere(id).copyTo(id, dest);
+            return;
+        }
+        Trace.Span span = Trace.start(Trace.Op.STORE_READ);
+        try {
+            if (f.isFile()) {
+                Codec c = codecOf(id);
+                if (c == null || c == Codec.STORE) {
+                    Utils.copy(f, c == null ? 0 : Codec.HEADER, dest);
+                    return;
+                }
+            }
+            try (InputStream in = open(id);
+                 OutputStream out = Files.newOutputStream(dest.toPath())) {
+                Utils.copy(in, out);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        } finally {
+            Trace.end(span, dest.length());
+        }
+    }
+
+    /** Store OBJ as object ID, unless it is already present. */
+    void writeObject(String id, Serializable obj) {
+        write(id, Utils.serialize(obj));
+    }
+
+    /** Reread the settings, and the packs if another process added or
+     *  removed any since they were opened. */
+    void refresh() {
+        settings.reload();
+        codec = null;
+        legacy = null;
+        List<ObjectStore> alts = alternates;
+        if (alts != null && alternatesFile.lastModified() != alternatesStamp) {
+            alternates = null;
+        } else if (alts != null) {
+            for (ObjectStore alt : alts) {
+                alt.refresh();
+            }
+        }
+        List<ObjectStore> proms = promisors;
+        if (proms != null && promisorsFile.lastModified() != promisorsStamp) {
+            promisors = null;
+        } else if (proms != null) {
+            for (ObjectStore promisor : proms) {
+                promisor.refresh();
+            }
+        }
+        if (packs != null) {
+            String[] names = packDir.list();
+            int idx = 0;
+            if (names != null) {
+                for (String name : names) {
+                    if (name.startsWith("pack-") && name.endsWith(".idx")) {
+                        idx++;
+                    }
+                }
+            }
+            if (idx != packs.size() || packs.stream().anyMatch(p -> !p.exists())) {
+                packs = null;
+            }
+        }
+    }
+
+    /** Return the ids of every object, loose or packed, in sorted order. */
+    List<String> ids() {
+        TreeSet<String> result = new TreeSet<>(looseIds());
+        for (Pack p : packs()) {
+            for (int i = 0; i < p.count(); i++) {
+                result.add(p.id(i));
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Return the last time, in milliseconds, that an object or pack was
+     *  added to or removed from this store's own directories, or 0 if it
+     *  has none. */
+    long lastChanged() {
+        return Math.max(dir.lastModified(), packDir.lastModified());
+    }
+
+    /** Return the loose object ids, in sorted order. */
+    private List<String> looseIds() {
+        List<String> result = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(dir);
+        if (names != null) {
+            for (String name : names) {
+                if (Utils.isUid(name)) {
+                    result.add(name);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return {pack, position} for ID, or null if no pack has it. */
+    private Object[] findPacked(String id) {
+        if (!Utils.isUid(id)) {
+            return null;
+        }
+        byte[] key = Utils.fromHex(id);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            for (Pack p : packs()) {
+                int i = p.find(key);
+                if (i >= 0) {
+                    return new Object[] {p, i};
+                }
+            }
+            /* Another process may have repacked since we looked. */
+            if (packDir.lastModified() == packsStamp) {
+                break;
+            }
+            packs = null;
+        }
+        return null;
+    }
+
+    /** Return the open packs, opening them if needed. */
+    private List<Pack> packs() {
+        List<Pack> result = packs;
+        if (result == null) {
+            packsStamp = packDir.lastModified();
+            result = new ArrayList<>();
+            String[] names = packDir.list();
+            if (names != null) {
+                for (String name : names) {
+                    if (name.startsWith("pack-") && name.endsWith(".idx")) {
+                        result.add(new Pack(Utils.join(packDir, name)));
+                    }
+                }
+            }
+            packs = result;
+        }
+        return result;
+    }
+
+    /** Pack the loose objects if there are too many of them, and merge the
+     *  packs if there are too many of those. */
+    void autoPack() {
+        String[] names = dir.list();
+        if (names != null && names.length > looseLimit()) {
+            repack(packs().size() >= PACK_LIMIT);
+        }
+    }
+
+    /** Return the set, over IDS as returned by ids(), of the objects here
+     *  last written at or after TIME: loose ones by written(), packed ones
+     *  by the time their pack records for each. */
+    BitSet writtenSince(List<String> ids, long time) {
+        BitSet result = new BitSet(ids.size());
+        for (Pack p : packs()) {
+            for (int i = 0; i < p.count(); i++) {
+                if (p.time(i) >= time) {
+                    int n = Collections.binarySearch(ids, p.id(i));
+                    if (n >= 0) {
+                        result.set(n);
+                    }
+                }
+            }
+        }
+        for (String id : looseIds()) {
+            if (written(loose(id)) >= time) {
+                int n = Collections.binarySearch(ids, id);
+                if (n >= 0) {
+                    result.set(n);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Delete those of the objects IDS, as returned by ids(), that are not
+     *  in KEEP, unless they were written at or after CUTOFF, which is
+     *  checked again just before each goes.  Loose ones are deleted; a pack
+     *  holding any is checked against its checksum and written again
+     *  without them, keeping the times of the rest, and on the disk,
+     *  before it is deleted.  Objects stored since
+     *  IDS was listed are not in it and are left alone. */
+    void prune(List<String> ids, BitSet keep, long cutoff) {
+        for (int i = keep.nextClearBit(0); i < ids.size(); i = keep.nextClearBit(i + 1)) {
+            File f = loose(ids.get(i));
+            if (f.isFile() && written(f) < cutoff) {
+                f.delete();
+            }
+        }
+        List<Pack> old = new ArrayList<>();
+        List<File> written = new ArrayList<>();
+        for (Pack p : packs()) {
+            List<String> kept = new ArrayList<>();
+            long[] times = new long[p.count()];
+            for (int i = 0; i < p.count(); i++) {
+                int n = Collections.binarySearch(ids, p.id(i));
+                if (n < 0 || keep.get(n) || p.time(i) >= cutoff) {
+                    times[kept.size()] = p.time(i);
+                    kept.add(p.id(i));
+                }
+            }
+            if (kept.size() == p.count()) {
+                continue;
+            }
+            p.verify();
+            if (!kept.isEmpty()) {
+                File w = Pack.write(packDir, kept, this, Arrays.copyOf(times, kept.size()));
+                syncPack(w);
+                written.add(w);
+            }
+            old.add(p);
+        }
+        if (old.isEmpty()) {
+            return;
+        }
+        Utils.fsync(packDir);
+        for (Pack p : old) {
+            if (!written.contains(p.packFile())) {
+                Pack.delete(p.packFile());
+            }
+        }
+        packs = null;
+    }
+
+    /** Move the loose objects into a new pack.  If ALL, also merge every
+     *  existing pack into it, once each is checked against its checksum,
+     *  so that a damaged pack is not copied into one that looks whole.
+     *  Each object keeps the time it was last written, so that gc judges
+     *  its age as before. */
+    void repack(boolean all) {
+        List<Pack> old = all ? packs() : new ArrayList<>();
+        TreeMap<String, Long> ids = new TreeMap<>();
+        List<String> loose = new ArrayList<>();
+        for (String id : looseIds()) {
+            File f = loose(id);
+            if (f.length() <= BIG_OBJECT) {
+                ids.put(id, written(f));
+                loose.add(id);
+            }
+        }
+        for (Pack p : old) {
+            p.verify();
+            for (int i = 0; i < p.count(); i++) {
+                ids.merge(p.id(i), p.time(i), Math::max);
+            }
+        }
+        List<File> written = new ArrayList<>();
+        List<String> chunk = new ArrayList<>();
+        long[] times = new long[ids.size()];
+        long size = 0;
+        for (Map.Entry<String, Long> e : ids.entrySet()) {
+            times[chunk.size()] = e.getValue();
+            chunk.add(e.getKey());
+            size += rawSize(e.getKey());
+            if (size >= MAX_PACK) {
+                written.add(Pack.write(packDir, chunk, this, Arrays.copyOf(times, chunk.size())));
+                chunk.clear();
+                size = 0;
+            }
+        }
+        if (!chunk.isEmpty()) {
+            written.add(Pack.write(packDir, chunk, this, Arrays.copyOf(times, chunk.size())));
+        }
+        /* The new packs are on the disk before anything they replace goes. */
+        for (File w : written) {
+            syncPack(w);
+        }
+        if (!written.isEmpty()) {
+            Utils.fsync(packDir);
+        }
+        for (Pack p : old) {
+            if (!written.contains(p.packFile())) {
+                Pack.delete(p.packFile());
+            }
+        }
+        for (String id : loose) {
+            loose(id).delete();
+        }
+        packs = null;
+    }
+}
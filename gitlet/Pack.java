@@ -0,0 +1,500 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/** A read-only packfile: many objects concatenated into one .pack file, with
+ *  a sorted .idx next to it.  Both files are memory-mapped.
+ *
+ *  .pack: "GPAK", version, count, then for each object its length and
+ *         bytes exactly as in its loose file, then the SHA-1 of everything
+ *         before it.
+ *  .idx:  "GIDX", version, a 256-entry fanout table (fanout[b] is the number
+ *         of ids whose first byte is <= b), the sorted 20-byte ids, their
+ *         offsets into the .pack, then the .pack checksum.
+ *  .times: "GTIM", version, then when each object was written, in
+ *         milliseconds, in the order of the .idx.  Optional: without it,
+ *         every object counts as written when the .pack was.
+ *
+ *  @author Luna, Tian
+ */
+class Pack {
+
+    /** Magic number and version of the .pack file. */
+    static final int PACK_MAGIC = 0x4750414b, VERSION = 1;
+
+    /** Magic number of the .idx file. */
+    static final int IDX_MAGIC = 0x47494458;
+
+    /** Magic number of the .times file. */
+    static final int TIMES_MAGIC = 0x4754494d;
+
+    /** Byte offset of the fanout table in the .idx file. */
+    private static final int FANOUT = 8;
+
+    /** Length of a binary object id. */
+    static final int ID_BYTES = Utils.UID_LENGTH / 2;
+
+    /** The .pack file. */
+    private final File packFile;
+
+    /** The mapped .idx file. */
+    private final MappedByteBuffer idx;
+
+    /** The mapped .pack file. */
+    private final MappedByteBuffer data;
+
+    /** The mapped .times file, or null if there is none, and when the
+     *  .pack file was written. */
+    private final MappedByteBuffer times;
+    private final long written;
+
+    /** Number of objects in this pack. */
+    private final int count;
+
+    /** Open the pack whose index is IDXFILE, checking that the two files
+     *  fit together: their headers, lengths and checksums, and that every
+     *  object the index names lies within the .pack.  Throws
+     *  IllegalArgumentException if they do not. */
+    Pack(File idxFile) {
+        String name = idxFile.getName();
+        packFile = new File(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        idx = map(idxFile);
+        data = map(packFile);
+        count = idx.capacity() >= idsStart() ? idx.getInt(FANOUT + 255 * 4) : -1;
+        if (!valid()) {
+            throw new IllegalArgumentException("corrupt pack " + name);
+        }
+        written = packFile.lastModified();
+        File timesFile = timesFile(packFile);
+        MappedByteBuffer t = timesFile.isFile() ? map(timesFile) : null;
+        if (t != null && (t.capacity() != 8 + 8L * count || t.getInt(0) != TIMES_MAGIC)) {
+            t = null;
+        }
+        times = t;
+    }
+
+    /** Return true if the .idx and .pack are whole and agree. */
+    private boolean valid() {
+        long end = data.capacity() - ID_BYTES;
+        if (count < 0 || end < 12
+                || idx.capacity() != idsStart() + (long) count * (ID_BYTES + 8) + ID_BYTES
+                || idx.getInt(0) != IDX_MAGIC || idx.getInt(4) != VERSION
+                || data.getInt(0) != PACK_MAGIC || data.getInt(4) != VERSION
+                || data.getInt(8) != count
+                || !checksum(idx, idx.capacity() - ID_BYTES).equals(checksum(data, (int) end))) {
+            return false;
+        }
+        for (int b = 0, last = 0; b < 256; b++) {
+            int n = idx.getInt(FANOUT + b * 4);
+            if (n < last) {
+                return false;
+            }
+            last = n;
+        }
+        for (int i = 0; i < count; i++) {
+            long off = idx.getLong(idsStart() + count * ID_BYTES + i * 8);
+            if (off < 12 || off + 4 > end || off + 4 + data.getInt((int) off) > end
+                    || data.getInt((int) off) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the hex checksum stored in BUF at AT. */
+    private static String checksum(ByteBuffer buf, int at) {
+        byte[] sum = new byte[ID_BYTES];
+        buf.get(at, sum);
+        return Utils.toHex(sum);
+    }
+
+    /** Check the .pack against its checksum, reading all of it, and throw
+     *  IllegalArgumentException if they differ.  Opening a pack only
+     *  checks that its files fit together; this is for whoever is about to
+     *  copy every object out of it. */
+    void verify() {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            ByteBuffer contents = data.duplicate();
+            contents.position(0);
+            contents.limit(data.capacity() - ID_BYTES);
+            md.update(contents);
+            if (!Utils.toHex(md.digest()).equals(checksum(data, data.capacity() - ID_BYTES))) {
+                throw new IllegalArgumentException("corrupt pack " + packFile.getName());
+            }
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Return the .times file of the pack PACKFILE. */
+    static File timesFile(File packFile) {
+        String name = packFile.getName();
+        return new File(packFile.getParentFile(),
+                name.substring(0, name.length() - ".pack".length()) + ".times");
+    }
+
+    /** Delete the pack PACKFILE, its index first, since that is what
+     *  readers look for, and its .times. */
+    static void delete(File packFile) {
+        String name = packFile.getName();
+        new File(packFile.getParentFile(), name.replace(".pack", ".idx")).delete();
+        timesFile(packFile).delete();
+        packFile.delete();
+    }
+
+    /** Return a read-only mapping of FILE. */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    File packFile() {
+        return packFile;
+    }
+
+    /** True iff the .pack file is still there; repack deletes the packs it merged. */
+    boolean exists() {
+        return packFile.isFile();
+    }
+
+    int count() {
+        return count;
+    }
+
+    /** Return the hex id of the Ith object in sorted order. */
+    String id(int i) {
+        byte[] id = new byte[ID_BYTES];
+        idx.get(idsStart() + i * ID_BYTES, id);
+        return Utils.toHex(id);
+    }
+
+    private int idsStart() {
+        return FANOUT + 256 * 4;
+    }
+
+    /** Return the position of the binary id ID, or -1 if it is not here. */
+    int find(byte[] id) {
+        int first = id[0] & 0xff;
+        int lo = first == 0 ? 0 : idx.getInt(FANOUT + (first - 1) * 4);
+        int hi = idx.getInt(FANOUT + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, id);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compare the Ith id with ID, as unsigned bytes. */
+    private int compare(int i, byte[] id) {
+        int base = idsStart() + i * ID_BYTES;
+        for (int k = 0; k < ID_BYTES; k++) {
+            int c = (idx.get(base + k) & 0xff) - (id[k] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Return the Ith object as stored. */
+    byte[] read(int i) {
+        int off = (int) idx.getLong(idsStart() + count * ID_BYTES + i * 8);
+        byte[] result = new byte[data.getInt(off)];
+        data.get(off + 4, result);
+        return result;
+    }
+
+    /** Return when the Ith object was written, in milliseconds. */
+    long time(int i) {
+        return times == null ? written : times.getLong(8 + i * 8);
+    }
+
+    /** Return the stored length of the Ith object. */
+    int size(int i) {
+        int off = (int) idx.getLong(idsStart() + count * ID_BYTES + i * 8);
+        return data.getInt(off);
+    }
+
+    /** Write the Ith object, as stored, to OUT straight from the mapping. */
+    void writeTo(int i, FileChannel out) throws IOException {
+        int off = (int) idx.getLong(idsStart() + count * ID_BYTES + i * 8);
+        ByteBuffer contents = data.duplicate();
+        contents.position(off + 4);
+        contents.limit(off + 4 + data.getInt(off));
+        while (contents.hasRemaining()) {
+            out.write(contents);
+        }
+    }
+
+    /** Write the objects IDS, whose contents come from SRC, into a new pack
+     *  in PACKDIR, and return its .pack file.  IDS must be sorted and
+     *  distinct.  TIMES, if not null, holds when each was written; if it is
+     *  null, they count as written now. */
+    static File write(File packDir, List<String> ids, ObjectStore src, long[] times) {
+        packDir.mkdirs();
+        try {
+            File tmpPack = File.createTempFile("tmp-", ".pack", packDir);
+            long[] offsets = new long[ids.size()];
+            byte[] sum;
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            DigestOutputStream digest = new DigestOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmpPack.toPath())), md);
+            try (DataOutputStream out = new DataOutputStream(digest)) {
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(ids.size());
+                for (int i = 0; i < ids.size(); i++) {
+                    byte[] contents = src.readRaw(ids.get(i));
+                    offsets[i] = out.size();
+                    out.writeInt(contents.length);
+                    out.write(contents);
+                }
+                sum = md.digest();
+                digest.on(false);
+                out.write(sum);
+            }
+            byte[] binary = new byte[ids.size() * ID_BYTES];
+            for (int i = 0; i < ids.size(); i++) {
+                System.arraycopy(Utils.fromHex(ids.get(i)), 0, binary, i * ID_BYTES, ID_BYTES);
+            }
+            File tmpIdx = writeIndex(packDir, binary, offsets, ids.size(), sum);
+            File tmpTimes = times == null ? null : writeTimes(packDir, times);
+            return install(packDir, tmpPack, tmpIdx, tmpTimes, sum);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Write an index of the first COUNT ids in IDS, sorted binary ids,
+     *  at OFFSETS in the pack whose checksum is SUM, to a temporary file in
+     *  PACKDIR, and return it. */
+    private static File writeIndex(File packDir, byte[] ids, long[] offsets, int count,
+                                   byte[] sum) throws IOException {
+        File tmpIdx = File.createTempFile("tmp-", ".idx", packDir);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmpIdx.toPath())))) {
+            out.writeInt(IDX_MAGIC);
+            out.writeInt(VERSION);
+            int[] fanout = new int[256];
+            for (int i = 0; i < count; i++) {
+                fanout[ids[i * ID_BYTES] & 0xff] += 1;
+            }
+            int total = 0;
+            for (int b = 0; b < 256; b++) {
+                total += fanout[b];
+                out.writeInt(total);
+            }
+            out.write(ids, 0, count * ID_BYTES);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(offsets[i]);
+            }
+            out.write(sum);
+        }
+        return tmpIdx;
+    }
+
+    /** Write TIMES, one per object in index order, to a temporary file in
+     *  PACKDIR, and return it. */
+    private static File writeTimes(File packDir, long[] times) throws IOException {
+        File tmpTimes = File.createTempFile("tmp-", ".times", packDir);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmpTimes.toPath())))) {
+            out.writeInt(TIMES_MAGIC);
+            out.writeInt(VERSION);
+            for (long t : times) {
+                out.writeLong(t);
+            }
+        }
+        return tmpTimes;
+    }
+
+    /** Move TMPPACK, its index TMPIDX and its times TMPTIMES (which may be
+     *  null), whose checksum is SUM, into PACKDIR under their final names,
+     *  and return the .pack file.  The .idx is what readers look for, so
+     *  it goes in last. */
+    private static File install(File packDir, File tmpPack, File tmpIdx, File tmpTimes,
+                                byte[] sum) throws IOException {
+        String name = "pack-" + Utils.toHex(sum);
+        File result = new File(packDir, name + ".pack");
+        Files.move(tmpPack.toPath(), result.toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        if (tmpTimes != null) {
+            Files.move(tmpTimes.toPath(), timesFile(result).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            timesFile(result).delete();
+        }
+        Files.move(tmpIdx.toPath(), new File(packDir, name + ".idx").toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return result;
+    }
+
+    /** A new pack written one object at a time, in whatever order the
+     *  objects come, as from a stream whose length is not known ahead.
+     *  The count in the header is filled in, and the checksum computed, by
+     *  seal(); nothing is visible in the pack directory until install(). */
+    static class Writer {
+        /** Where the pack goes. */
+        private final File packDir;
+
+        /** The pack being written, and its index once sealed. */
+        private final File tmpPack;
+        private File tmpIdx;
+
+        /** The pack's checksum once sealed. */
+        private byte[] sum;
+
+        private final DataOutputStream out;
+
+        /** Binary ids and offsets of the objects written, in order. */
+        private byte[] ids = new byte[64 * ID_BYTES];
+        private long[] offsets = new long[64];
+        private int count;
+
+        /** Bytes written so far. */
+        private long size;
+
+        Writer(File packDir) {
+            this.packDir = packDir;
+            packDir.mkdirs();
+            try {
+                tmpPack = File.createTempFile("tmp-", ".pack", packDir);
+                out = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(tmpPack.toPath()), Utils.BUFFER_SIZE));
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(0);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            size = 12;
+        }
+
+        /** Number of bytes in the pack so far. */
+        long size() {
+            return size;
+        }
+
+        /** Add object ID, the next LENGTH bytes of IN exactly as stored. */
+        void add(String id, InputStream in, int length) throws IOException {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                ids = Arrays.copyOf(ids, count * 2 * ID_BYTES);
+            }
+            System.arraycopy(Utils.fromHex(id), 0, ids, count * ID_BYTES, ID_BYTES);
+            offsets[count++] = size;
+            out.writeInt(length);
+            Utils.copy(in, out, length);
+            size += 4 + length;
+        }
+
+        /** Finish the pack and write its index, both still under temporary
+         *  names, and force them to the disk. */
+        void seal() {
+            try {
+                out.close();
+                MessageDigest md = MessageDigest.getInstance("SHA-1");
+                try (FileChannel ch = FileChannel.open(tmpPack.toPath(),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    ch.write(ByteBuffer.allocate(4).putInt(0, count), 8);
+                    ByteBuffer buf = ByteBuffer.allocate(Utils.BUFFER_SIZE);
+                    for (long pos = 0; pos < size; pos += buf.position()) {
+                        buf.clear();
+                        ch.read(buf, pos);
+                        md.update(buf.array(), 0, buf.position());
+                    }
+                    sum = md.digest();
+                    ch.write(ByteBuffer.wrap(sum), size);
+                    ch.force(true);
+                }
+                sortById();
+                tmpIdx = writeIndex(packDir, ids, offsets, count, sum);
+                Utils.fsync(tmpIdx);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException("System does not support SHA-1");
+            }
+        }
+
+        /** Move the sealed pack and its index into the pack directory. */
+        void install() {
+            try {
+                Pack.install(packDir, tmpPack, tmpIdx, null, sum);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Throw the pack away. */
+        void abort() {
+            try {
+                out.close();
+            } catch (IOException excp) {
+                /* Deleted below either way. */
+            }
+            tmpPack.delete();
+            if (tmpIdx != null) {
+                tmpIdx.delete();
+            }
+        }
+
+        /** Sort IDS and OFFSETS together by id, keeping only the first of
+         *  any object added twice. */
+        private void sortById() {
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            byte[] bytes = ids;
+            Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(
+                    bytes, a * ID_BYTES, a * ID_BYTES + ID_BYTES,
+                    bytes, b * ID_BYTES, b * ID_BYTES + ID_BYTES));
+            byte[] sortedIds = new byte[count * ID_BYTES];
+            long[] sortedOffsets = new long[count];
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                int k = order[i];
+                if (n > 0 && Arrays.equals(bytes, k * ID_BYTES, k * ID_BYTES + ID_BYTES,
+                        sortedIds, (n - 1) * ID_BYTES, n * ID_BYTES)) {
+                    continue;
+                }
+                System.arraycopy(bytes, k * ID_BYTES, sortedIds, n * ID_BYTES, ID_BYTES);
+                sortedOffsets[n++] = offsets[k];
+            }
+            ids = sortedIds;
+            offsets = sortedOffsets;
+            count = n;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package gitlet;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** A commit's files, path to blob id, backed by its root Tree.  Lookups
+ *  walk the trees; changes are kept aside until root() folds them into new
+ *  trees, so a commit costs work in the paths it changed rather than in
+ *  every file it tracks.  The flat path map is only built if someone
+ *  iterates.
+ *
+ *  @author Luna, Tian
+ */
+class PathMap extends AbstractMap<String, String> {
+
+    /** Where the trees are. */
+    private final ObjectStore store;
+
+    /** The root tree, without CHANGES. */
+    private String root;
+
+    /** Changes since ROOT: path to new blob id, or to null if removed. */
+    private final TreeMap<String, String> changes = new TreeMap<>();
+
+    /** Every path, once iterated. */
+    private HashMap<String, String> flat;
+
+    PathMap(ObjectStore store, String root) {
+        this.store = store;
+        this.root = root;
+    }
+
+    /** Return the id of the root tree with all changes applied. */
+    String root() {
+        if (!changes.isEmpty()) {
+            root = Tree.update(store, root, changes);
+            changes.clear();
+        }
+        return root;
+    }
+
+    @Override
+    public String get(Object key) {
+        if (flat != null) {
+            return flat.get(key);
+        }
+        if (!(key instanceof String)) {
+            return null;
+        }
+        if (changes.containsKey(key)) {
+            return changes.get(key);
+        }
+        return Tree.lookup(store, root, (String) key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        String old = get(key);
+        changes.put(key, value);
+        if (flat != null) {
+            flat.put(key, value);
+        }
+        return old;
+    }
+
+    @Override
+    public String remove(Object key) {
+        String old = get(key);
+        if (old != null) {
+            changes.put((String) key, null);
+            if (flat != null) {
+                flat.remove(key);
+            }
+        }
+        return old;
+    }
+
+    @Override
+    public int size() {
+        return built().size();
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return Collections.unmodifiableMap(built()).entrySet();
+    }
+
+    /** Return every path, building the flat map if needed. */
+    private HashMap<String, String> built() {
+        if (flat == null) {
+            flat = new HashMap<>();
+            Tree.flatten(store, root, "", flat);
+            for (Map.Entry<String, String> c : changes.entrySet()) {
+                if (c.getValue() == null) {
+                    flat.remove(c.getKey());
+                } else {
+                    flat.put(c.getKey(), c.getValue());
+                }
+            }
+        }
+        return flat;
+    }
+}
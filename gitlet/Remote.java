@@ -1,4 +1,217 @@
 package gitlet;
 
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Another repository, reached through its .gitlet directory, that fetch
+ *  and push copy commits from and to, and the negotiation that decides
+ *  what they copy.
+ *
+ *  The receiving side wants one commit and has whatever is in its commit
+ *  graph.  A repository that has a commit also has that commit's
+ *  ancestors, trees and blobs, since they are always copied, and on the
+ *  disk, before it is added there.  So the walk back
+ *  from the wanted commit stops at every commit the receiver has, the
+ *  copy of a tree stops at every subtree it has, and a blob is only
+ *  copied if it is missing.  A transfer reads and writes in proportion to
+ *  what is new to the receiver, not to the length of the history.
+ *
+ *  Remotes are directories on this machine, so objects move through
+ *  ObjectStore.copyAll: hard links where the two repositories share a
+ *  file system, FileChannel copies otherwise, several at a time.  Both
+ *  directions return only once everything copied is on the disk, and the
+ *  caller moves a branch to the new commit after that.
+ *
+ *  A partial fetch copies commits and trees but no blobs; the caller
+ *  first names the remote as a promisor, and the blobs are copied from it
+ *  when they are first read (see ObjectStore).
+ *
+ *  @author Luna, Tian
+ */
 public class Remote {
+
+    /** The .gitlet directory of the remote repository. */
+    final File dir;
+
+    /** Its branch table file. */
+    final File branches;
+
+    /** Its commits, trees and blobs. */
+    final ObjectStore commits, trees, blobs;
+
+    /** The shape of its history, as push adds to it. */
+    final CommitGraph graph;
+
+    /** The same, as fetch reads it: a fetch never writes to the repository
+     *  it copies from, even to build a graph file it lacks. */
+    private final CommitGraph source;
+
+    /** Its commit ids, for resolving abbreviated ones. */
+    final CommitIndex commitIndex;
+
+    /** The repository whose .gitlet directory is DIR. */
+    Remote(File dir) {
+        this.dir = dir;
+        branches = Utils.join(dir, "branches");
+        commits = new ObjectStore(Utils.join(dir, "commit"));
+        trees = new ObjectStore(Utils.join(dir, "trees"));
+        blobs = new ObjectStore(Utils.join(dir, "blob_files"));
+        graph = new CommitGraph(Utils.join(dir, "commit-graph"), commits, trees);
+        source = new CommitGraph(Utils.join(dir, "commit-graph"), commits, trees, true);
+        commitIndex = new CommitIndex(Utils.join(dir, "commit-index"), commits);
+    }
+
+    /** Copy commit WANT, which is here, into REPO with whatever REPO does
+     *  not have of its history, leaving out the blobs if PARTIAL.  Return
+     *  the number of commits copied. */
+    int fetchInto(Repository repo, String want, boolean partial) {
+        List<String> ids = missing(source, want, repo.graph);
+        List<Commit> copied = copy(ids, repo.commits, repo.trees, partial ? null : repo.blobs,
+                                   commits, trees, blobs);
+        repo.graph.addAll(ids, copied);
+        repo.commitIndex.addAll(ids);
+        repo.commits.autoPack();
+        repo.trees.autoPack();
+        repo.blobs.autoPack();
+        return ids.size();
+    }
+
+    /** Copy commit WANT, which is in REPO, here with whatever is not here
+     *  of its history.  Return the number of commits copied. */
+    int pushFrom(Repository repo, String want) {
+        List<String> ids = missing(repo.graph, want, graph);
+        List<Commit> copied = copy(ids, commits, trees, blobs,
+                                   repo.commits, repo.trees, repo.blobs);
+        graph.addAll(ids, copied);
+        commitIndex.addAll(ids);
+        commits.autoPack();
+        trees.autoPack();
+        blobs.autoPack();
+        return ids.size();
+    }
+
+    /** Return the ids of WANT and of those of its ancestors in SRC that
+     *  DEST does not have, parents before children.  The walk does not go
+     *  past a commit DEST has.  Only commits in DEST's graph count: a
+     *  transfer adds its commits there once they are all on the disk, so
+     *  ones left in the store by a transfer that did not finish are sent
+     *  again. */
+    static List<String> missing(CommitGraph src, String want, CommitGraph dest) {
+        int start = src.position(want);
+        if (start == CommitGraph.NONE) {
+            throw new IllegalArgumentException("no commit " + want);
+        }
+        int[] found = new int[16];
+        int n = 0;
+        BitSet seen = new BitSet(src.size());
+        ArrayDeque<Integer> fringe = new ArrayDeque<>();
+        fringe.add(start);
+        seen.set(start);
+        while (!fringe.isEmpty()) {
+            int curr = fringe.poll();
+            if (dest.contains(src.id(curr))) {
+                continue;
+            }
+            if (n == found.length) {
+                found = Arrays.copyOf(found, n * 2);
+            }
+            found[n++] = curr;
+            for (int p : src.parents(curr)) {
+                if (!seen.get(p)) {
+                    seen.set(p);
+                    fringe.add(p);
+                }
+            }
+        }
+        /* Parents always have lower positions than their children. */
+        Arrays.sort(found, 0, n);
+        List<String> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(src.id(found[i]));
+        }
+        return result;
+    }
+
+    /** Copy commits IDS, with the trees and blobs they need, from the SRC
+     *  stores into the DEST stores: first every blob, then the trees from
+     *  the leaves up, then the commits.  Each step copies many objects at
+     *  once and is on the disk before the next begins, so no tree lands
+     *  before what is under it and no commit before its tree.  DESTBLOBS
+     *  is null if the blobs are to be left out.  Return the commits, in
+     *  the order of IDS. */
+    private static List<Commit> copy(List<String> ids, ObjectStore destCommits, ObjectStore destTrees,
+                             ObjectStore destBlobs, ObjectStore srcCommits,
+                             ObjectStore srcTrees, ObjectStore srcBlobs) {
+        Set<String> blobIds = destBlobs == null ? null : new HashSet<>();
+        List<List<String>> treeLevels = new ArrayList<>();
+        HashMap<String, Integer> heights = new HashMap<>();
+        List<Commit> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Commit c = Commit.read(srcCommits, srcTrees, id);
+            result.add(c);
+            if (c.fileMap instanceof PathMap) {
+                gatherTree(c.tree(), heights, treeLevels, blobIds,
+                           destTrees, destBlobs, srcTrees);
+            } else if (blobIds != null) {
+                for (String blob : c.fileMap.values()) {
+                    if (!blobIds.contains(blob) && !destBlobs.contains(blob)) {
+                        blobIds.add(blob);
+                    }
+                }
+            }
+        }
+        if (blobIds != null) {
+            destBlobs.copyAll(srcBlobs, blobIds);
+        }
+        for (List<String> level : treeLevels) {
+            destTrees.copyAll(srcTrees, level);
+        }
+        destCommits.copyAll(srcCommits, ids);
+        return result;
+    }
+
+    /** Add tree ID, unless DESTTREES has it, to TREELEVELS at its height
+     *  (0 for a tree of files only), along with the trees under it, and
+     *  the blobs under it that DESTBLOBS lacks to BLOBIDS, unless that is
+     *  null.  HEIGHTS holds
+     *  the trees seen so far.  Return the height of ID, or -1 if DESTTREES
+     *  has it, since having a tree means having what is under it. */
+    private static int gatherTree(String id, HashMap<String, Integer> heights,
+                                  List<List<String>> treeLevels, Set<String> blobIds,
+                                  ObjectStore destTrees, ObjectStore destBlobs,
+                                  ObjectStore srcTrees) {
+        Integer known = heights.get(id);
+        if (known != null) {
+            return known;
+        }
+        if (destTrees.contains(id)) {
+            heights.put(id, -1);
+            return -1;
+        }
+        int height = 0;
+        for (Map.Entry<String, String> e : Tree.read(srcTrees, id).entrySet()) {
+            String child = e.getValue();
+            if (e.getKey().endsWith("/")) {
+                height = Math.max(height, 1 + gatherTree(child, heights, treeLevels, blobIds,
+                                                         destTrees, destBlobs, srcTrees));
+            } else if (blobIds != null && !blobIds.contains(child)
+                       && !destBlobs.contains(child)) {
+                blobIds.add(child);
+            }
+        }
+        while (treeLevels.size() <= height) {
+            treeLevels.add(new ArrayList<>());
+        }
+        treeLevels.get(height).add(id);
+        heights.put(id, height);
+        return height;
+    }
 }
@@ -1,9 +1,18 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
-import static gitlet.Main.exitWithError;
 import static gitlet.Utils.*;
 
 
@@ -11,39 +20,158 @@ import static gitlet.Utils.*;
  *  This is where the main logic of our program will live. (contains add, remove etc methods)
  *  does at a high level.
  *
+ *  One instance per working directory, opened with open() or created with
+ *  init(); any number can be open in one JVM.  Commands report failures by
+ *  throwing a GitletException whose message is the one to print, and write
+ *  any other output to the PrintStream they are given, so Main is only the
+ *  command line on top of this.
+ *
  *  @author Luna, Tian
  */
 public class Repository {
 
-    /** The current working directory. */
-    public static final File CWD = new File(System.getProperty("user.dir"));
+    /** The working directory. */
+    final File cwd;
 
     /** The .gitlet directory. */
-    public static final File GITLET_DIR = join(CWD, ".gitlet");
+    final File gitletDir;
 
     /** The commit directory. */
-    public static final File COMMIT = join(GITLET_DIR, "commit");
+    final File commitDir;
 
     /** The blob_files directory. including all the files' data */
-    public static final File BLOB_FILES = join(GITLET_DIR, "blob_files");
+    final File blobDir;
+
+    /** The trees directory, one tree object per directory of a commit. */
+    final File treeDir;
 
-    /** The stage_add directory. */
-    public static final File STAGE_ADD = join(GITLET_DIR, "stage_add");
+    /** The stage_add and stage_remove directories of older repositories,
+     *  whose files are moved into stageFile when it is first read. */
+    final File stageAdd, stageRemove;
 
-    /** The stage_remove directory. */
-    public static final File STAGE_REMOVE = join(GITLET_DIR, "stage_remove");
+    /** The staging file, what is staged for addition and for removal. */
+    final File stageFile;
 
-    /** The branches directory. */
-    public static final File BRANCHES = join(GITLET_DIR, "branches");
+    /** The branches file. */
+    final File branches;
 
     /** The config directory. (for remote) */
-    public static final File CONFIG = join(GITLET_DIR, "config");
+    final File config;
+
+    /** The settings file, such as the codec for new objects. */
+    final File settingsFile;
+
+    /** The alternates file, other .gitlet directories objects are read from. */
+    final File alternatesFile;
+
+    /** The promisors file, remotes that keep blobs partial fetches left out. */
+    final File promisorsFile;
+
+    /** The commit-graph file, parents and generations of every commit. */
+    final File graphFile;
+
+    /** The commit-index file, every commit id in sorted order. */
+    final File commitIndexFile;
+
+    /** The index file, stat data and blob ids of working files. */
+    final File indexFile;
+
+    /** The commits, loose in commitDir or packed under it. */
+    final ObjectStore commits;
+
+    /** The blobs, loose in blobDir or packed under it. */
+    final ObjectStore blobs;
+
+    /** The trees, loose in treeDir or packed under it. */
+    final ObjectStore trees;
+
+    /** The shape of the history in commits. */
+    final CommitGraph graph;
+
+    /** Commit ids, for resolving abbreviated ones. */
+    final CommitIndex commitIndex;
+
+    /** Cached blob ids of files in cwd, so unchanged files are not rehashed. */
+    final StatCache index;
+
+    /** The bytes of the branches file as last read or written, and its
+     *  stat data then, so they are only read again if it changed. */
+    private byte[] branchBytes;
+    private long[] branchStat;
+
+    /** What the current command has loaded, or null between commands. */
+    private Session session;
+
+    /** the repository whose working directory is DIR, which need not exist yet */
+    private Repository(File dir) {
+        cwd = dir;
+        gitletDir = join(cwd, ".gitlet");
+        commitDir = join(gitletDir, "commit");
+        blobDir = join(gitletDir, "blob_files");
+        treeDir = join(gitletDir, "trees");
+        stageAdd = join(gitletDir, "stage_add");
+        stageRemove = join(gitletDir, "stage_remove");
+        stageFile = join(gitletDir, "stage");
+        branches = join(gitletDir, "branches");
+        config = join(gitletDir, "config");
+        settingsFile = join(gitletDir, "settings");
+        alternatesFile = join(gitletDir, "alternates");
+        promisorsFile = join(gitletDir, "promisors");
+        graphFile = join(gitletDir, "commit-graph");
+        commitIndexFile = join(gitletDir, "commit-index");
+        indexFile = join(gitletDir, "index");
+        commits = new ObjectStore(commitDir);
+        blobs = new ObjectStore(blobDir);
+        trees = new ObjectStore(treeDir);
+        graph = new CommitGraph(graphFile, commits, trees);
+        commitIndex = new CommitIndex(commitIndexFile, commits);
+        index = new StatCache(indexFile, cwd);
+    }
+
+    /** open the repository in DIR */
+    public static Repository open(File dir) {
+        Repository repo = new Repository(dir);
+        if (!repo.gitletDir.exists()) {
+            throw error("Not in an initialized Gitlet directory.");
+        }
+        repo.upgrade();
+        return repo;
+    }
+
+    /** bring a repository older than ObjectStore.FORMAT up to it: give its raw
+     * objects headers, then record the format, so that from then on no object
+     * is taken for raw by its contents */
+    private void upgrade() {
+        if (!commits.legacy()) {
+            return;
+        }
+        commits.upgrade();
+        trees.upgrade();
+        blobs.upgrade();
+        new Settings(settingsFile).set("core.format", Integer.toString(ObjectStore.FORMAT));
+        commits.refresh();
+        trees.refresh();
+        blobs.refresh();
+    }
+
+    /** create a repository in DIR, with its initial commit, and open it */
+    public static Repository init(File dir) {
+        Repository repo = new Repository(dir);
+        repo.setupInit();
+        return repo;
+    }
 
 
     /**
      * set up initialized system
      */
     public static class Branch implements Serializable {
+        /** Matches the branch tables written with Java serialization. */
+        private static final long serialVersionUID = -1664306890745588588L;
+
+        /** Magic number and version of the encoding. */
+        static final int MAGIC = 0x4742524e, VERSION = 1;
+
         TreeMap<String, String> branchMap;
         String currbc;
 
@@ -52,75 +180,138 @@ public class Repository {
             currbc = "master";
         }
 
-        public static void addBranch(String name) {
-            Branch thisB = readObject(BRANCHES, Branch.class);
-            TreeMap<String, String> currMap = thisB.branchMap;
-            if (exist(name)) {
-                exitWithError("A branch with that name already exists.");
-            }
-            currMap.put(name, currMap.get(thisB.currbc));
-            Utils.writeObject(BRANCHES, thisB);
+        /** read the branch table in FILE, encoded or serialized by an older version */
+        public static Branch read(File file) {
+            return decode(readContents(file));
         }
 
-        public static void rmBranch(String bname) {
-            Branch thisB = readObject(BRANCHES, Branch.class);
-            TreeMap<String, String> currMap = thisB.branchMap;
-            if (!exist(bname)) {
-                exitWithError("A branch with that name does not exist.");
-            } else if (self(bname)) {
-                exitWithError("Cannot remove the current branch.");
+        /** decode the branch table BYTES */
+        static Branch decode(byte[] bytes) {
+            if (bytes.length > 1 && bytes[0] == (byte) 0xac && bytes[1] == (byte) 0xed) {
+                return Utils.deserialize(bytes, Branch.class);
+            }
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+                if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                    throw new IOException("not a branch table");
+                }
+                Trace.decoded("Branch");
+                Branch result = new Branch();
+                result.currbc = in.readUTF();
+                int n = in.readInt();
+                byte[] id = new byte[Pack.ID_BYTES];
+                for (int i = 0; i < n; i++) {
+                    String name = in.readUTF();
+                    in.readFully(id);
+                    result.branchMap.put(name, Utils.toHex(id));
+                }
+                return result;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** write this branch table to FILE */
+        public void write(File file) {
+            writeContents(file, encode());
+        }
+
+        /** return this branch table as "GBRN", version, current branch,
+         * then each branch's name and head id in name order */
+        byte[] encode() {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeUTF(currbc);
+                out.writeInt(branchMap.size());
+                for (Map.Entry<String, String> e : branchMap.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.write(Utils.fromHex(e.getValue()));
+                }
+                out.close();
+                return bytes.toByteArray();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
             }
-            currMap.remove(bname);
-            Utils.writeObject(BRANCHES, thisB);
         }
+    }
+
 
-        public static void updateBranch(Commit curr) {
-            Branch thisB = readObject(BRANCHES, Branch.class);
-            thisB.branchMap.put(thisB.currbc, Utils.sha1(serialize(curr)));
-            Utils.writeObject(BRANCHES, thisB);
+    /** return the state of the command in progress, starting one if needed */
+    Session session() {
+        if (session == null) {
+            session = new Session(this);
         }
+        return session;
+    }
 
-        private static boolean exist(String name) {
-            Branch thisB = readObject(BRANCHES, Branch.class);
-            TreeMap<String, String> currMap = thisB.branchMap;
-            if (currMap.containsKey(name)) {
-                return true;
-            }
-            return false;
+    /** return this repository's branch table, rereading the file only if it changed */
+    Branch readBranches() {
+        long[] stat = StatCache.stat(branches);
+        if (branchBytes == null || stat == null || !Arrays.equals(stat, branchStat)) {
+            branchBytes = readContents(branches);
+            branchStat = stat;
         }
+        return Branch.decode(branchBytes);
+    }
 
-        private static boolean self(String name) {
-            Branch thisB = readObject(BRANCHES, Branch.class);
-            if (thisB.currbc.equals(name)) {
-                return true;
-            }
-            return false;
+    /** write TABLE as this repository's branch table */
+    void writeBranches(Branch table) {
+        byte[] bytes = table.encode();
+        writeContents(branches, bytes);
+        branchBytes = bytes;
+        branchStat = StatCache.stat(branches);
+    }
+
+    public void addBranch(String name) {
+        Branch thisB = session().branches();
+        TreeMap<String, String> currMap = thisB.branchMap;
+        if (currMap.containsKey(name)) {
+            throw error("A branch with that name already exists.");
+        }
+        currMap.put(name, currMap.get(thisB.currbc));
+        session().branchesChanged();
+    }
+
+    public void rmBranch(String bname) {
+        Branch thisB = session().branches();
+        TreeMap<String, String> currMap = thisB.branchMap;
+        if (!currMap.containsKey(bname)) {
+            throw error("A branch with that name does not exist.");
+        } else if (thisB.currbc.equals(bname)) {
+            throw error("Cannot remove the current branch.");
         }
+        currMap.remove(bname);
+        session().branchesChanged();
+    }
+
+    private void updateBranch(Commit curr) {
+        Branch thisB = session().branches();
+        thisB.branchMap.put(thisB.currbc, curr.getSha1());
+        session().branchesChanged();
     }
 
 
-    public static void setupInit() {
-        if (GITLET_DIR.exists()) {
-            exitWithError("A Gitlet version-control system already "
+    private void setupInit() {
+        if (gitletDir.exists()) {
+            throw error("A Gitlet version-control system already "
                     + "exists in the current directory.");
         }
-        GITLET_DIR.mkdir();
-        COMMIT.mkdir();
-        BLOB_FILES.mkdir();
-        STAGE_ADD.mkdir();
-        STAGE_REMOVE.mkdir();
-        CONFIG.mkdir();
+        gitletDir.mkdir();
+        commitDir.mkdir();
+        blobDir.mkdir();
+        treeDir.mkdir();
+        config.mkdir();
+        writeContents(settingsFile, Settings.DEFAULTS);
 
-        //BlobHashMap blobH = new BlobHashMap();
-        //File blobHashMap = Utils.join(BLOB_FILES, "blob_map");
-        //writeObject(blobHashMap, blobH);
-
-        Commit curr = new Commit(null, "initial commit");
-        curr.safeCommit();     //save ComNode in COMMIT
+        Commit curr = new Commit(trees, "initial commit");
+        curr.safeCommit(this);     //save ComNode in COMMIT
 
         Branch newB = new Branch();              //create new branch and save
-        newB.branchMap.put("master", Utils.sha1(serialize(curr)));
-        writeObject(Utils.join(BRANCHES), newB);
+        newB.branchMap.put("master", curr.getSha1());
+        writeBranches(newB);
     }
 
 
@@ -129,351 +320,323 @@ public class Repository {
      * if identical to current commit file , do not stage
      * the file will not for removal, if it has been flagged for remove
      */
-    public static void addFile(String fileN) {
-        File forAdd = Utils.join(CWD, fileN);
+    public void addFile(String fileN) {
+        File forAdd = Utils.join(cwd, fileN);
         if (!forAdd.exists()) {
-            exitWithError("File does not exist.");
-        }
-        File rmFile = Utils.join(STAGE_REMOVE, fileN);
-        if (rmFile.exists()) {
-            rmFile.delete();
+            throw error("File does not exist.");
         }
-        String shaName = Utils.sha1(readContents(forAdd));
+        session().unstageRemoval(fileN);
+        String shaName = fileSha1(forAdd);
         Commit curr = currCom();
-        HashMap<String, String> currMap = curr.fileMap;
+        Map<String, String> currMap = curr.fileMap;
         if (currMap.containsKey(fileN) && currMap.get(fileN).equals(shaName)) {
-            if (Utils.join(STAGE_ADD, fileN).exists()) {
-                Utils.join(STAGE_ADD, fileN).delete();
-            }
+            session().unstage(fileN);
             return;
         }
-        File copyFile = Utils.join(STAGE_ADD, fileN);
-        writeContents(copyFile, readContents(forAdd));
+        session().stage(fileN, forAdd, shaName);     //blob stored once, here
     }
 
 
-    public static void remove(String filename) {
-        File stageadd = Utils.join(STAGE_ADD, filename);
-        boolean check = false;
-        if (stageadd.exists()) {
-            stageadd.delete();
-            check = true;
-        }
-        if (currCom().fileMap.containsKey(filename)) {
-            String fileSha = currCom().fileMap.get(filename);
-            File remove = Utils.join(BLOB_FILES, fileSha);
-            File inRemove = Utils.join(STAGE_REMOVE, filename);   //stage for removal
-            writeContents(inRemove, readContents(remove));
-            if (join(CWD, filename).exists()) {
-                restrictedDelete(join(CWD, filename));            //delete CWD file
+    public void remove(String filename) {
+        boolean check = session().unstage(filename);
+        String fileSha = currCom().fileMap.get(filename);
+        if (fileSha != null) {
+            session().stageRemoval(filename, fileSha);   //stage for removal
+            if (join(cwd, filename).exists()) {
+                restrictedDelete(join(cwd, filename));            //delete cwd file
             }
             check = true;
         }
         if (!check) {
-            System.out.println("No reason to remove the file.");
+            throw error("No reason to remove the file.");
         }
     }
 
 
-    public static void commit(String message) {
+    public void commit(String message) {
         if (message.equals("")) {
-            exitWithError("Please enter a commit message.");
+            throw error("Please enter a commit message.");
         }
-        List<String> stageFile = plainFilenamesIn(STAGE_ADD);
-        List<String> rmFile = plainFilenamesIn(STAGE_REMOVE);
-        if (stageFile.size() == 0 && rmFile.size() == 0) {
-            exitWithError("No changes added to the commit.");
+        if (session().stageEmpty()) {
+            throw error("No changes added to the commit.");
         }
         Commit curr = new Commit(currCom(), message);
-        curr = curr.setCommit();
-        curr.safeCommit();    //save curr Node
-        Branch.updateBranch(curr);
+        curr = curr.setCommit(this);
+        curr.safeCommit(this);    //save curr Node
+        updateBranch(curr);
+        commits.autoPack();
+        trees.autoPack();
+        blobs.autoPack();
     }
 
 
-    public static void printLog(Commit node) {
-        if (node == null) {
-            return;
+    /** print the history of the current branch's head to OUT, first parents only */
+    public void printLog(PrintStream out) {
+        printLog(out, Integer.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /** print at most MAX entries of the first-parent history of the head to OUT, skipping
+     * commits made after UNTIL and stopping at the first one made before SINCE (milliseconds)
+     * walks the commit graph in a loop, so no Commit is read, and prints in chunks,
+     * stopping as soon as OUT reports an error, such as a closed pipe */
+    public void printLog(PrintStream out, int max, long since, long until) {
+        StringBuilder chunk = new StringBuilder(BUFFER_SIZE + 256);
+        int shown = 0;
+        int pos = graph.position(session().headId());
+        while (pos != CommitGraph.NONE && shown < max) {
+            long time = graph.timestamp(pos);
+            if (time < since) {
+                break;
+            }
+            if (time <= until) {
+                logEntry(chunk, graph.id(pos), time, graph.message(pos));
+                shown += 1;
+                if (chunk.length() >= BUFFER_SIZE && !print(out, chunk)) {
+                    return;
+                }
+            }
+            pos = graph.firstParent(pos);
         }
-        String sha1 = node.getSha1();        //information of curr Node
-        String message = node.message;
-        Calendar cal = Calendar.getInstance();
-        cal.setTime(node.timestamp);
+        print(out, chunk);
+    }
 
-        String dateform = String.format("%1$ta %1$tb %1$td %1$tT %1$tY %1$tz", cal);
-        System.out.println("===" + "\n" + "commit " + sha1 + "\n" + "Date: "
-                + dateform + "\n" + message);
-        System.out.println("");
-        if (node.parent == null) {
-            return;
+
+    /** print CHUNK to OUT and empty it, returning false if OUT has failed */
+    private static boolean print(PrintStream out, StringBuilder chunk) {
+        out.print(chunk);
+        chunk.setLength(0);
+        return !out.checkError();
+    }
+
+
+    /** print every commit to OUT, oldest first, straight from the commit graph
+     * the entries are gathered into chunks of about BUFFER_SIZE characters before printing */
+    public void printAllLog(PrintStream out) {
+        StringBuilder chunk = new StringBuilder(BUFFER_SIZE + 256);
+        for (int pos = 0; pos < graph.size(); pos++) {
+            logEntry(chunk, graph.id(pos), graph.timestamp(pos), graph.message(pos));
+            if (chunk.length() >= BUFFER_SIZE && !print(out, chunk)) {
+                return;
+            }
         }
-        printLog(readObject(join(COMMIT, node.parent.get(0)), Commit.class));
+        print(out, chunk);
     }
 
 
-    public static void printAllLog() {
-        List<String> commits = plainFilenamesIn(join(COMMIT));
-        for (String c: commits) {
-            Commit thisC = Utils.readObject(join(COMMIT, c), Commit.class);
-            String message = thisC.message;
-            Calendar cal = Calendar.getInstance();
-            cal.setTime(thisC.timestamp);
+    /** how log and global-log show a date: "Thu Jan 01 00:00:00 1970 -0800"
+     * made when first needed, since other commands have no use for it */
+    private static DateTimeFormatter logDate;
 
-            String dateform = String.format("%1$ta %1$tb %1$td %1$tT %1$tY %1$tz", cal);
-            System.out.println("===" + "\n" + "commit " + c + "\n" + "Date: "
-                    + dateform + "\n" + message);
-            System.out.println("");
+
+    /** add the log entry of commit ID, made at TIME with MESSAGE, to OUT */
+    private static void logEntry(StringBuilder out, String id, long time, String message) {
+        if (logDate == null) {
+            logDate = DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss yyyy Z",
+                    Locale.getDefault(Locale.Category.FORMAT));
         }
+        String nl = System.lineSeparator();
+        out.append("===\ncommit ").append(id).append("\nDate: ");
+        logDate.formatTo(Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault()), out);
+        out.append("\n").append(message).append(nl).append(nl);
     }
 
 
-    public static void find(String m) {
-        List<String> commits = plainFilenamesIn(COMMIT);
-        boolean pt = false;
-        for (String c: commits) {
-            Commit thisC = Utils.readObject(join(COMMIT, c), Commit.class);
-            if (thisC.message.equals(m)) {
-                System.out.println(c);
-                pt = true;
-            }
+    /** return the ids of the commits with message M, in order
+     * looked up in the commit graph's message index rather than by reading every commit */
+    public List<String> find(String m) {
+        List<String> found = new ArrayList<>();
+        for (int pos : graph.withMessage(m)) {
+            found.add(graph.id(pos));
         }
-        if (!pt) {
-            System.out.println("Found no commit with that message.");
+        if (found.isEmpty()) {
+            throw error("Found no commit with that message.");
         }
+        Collections.sort(found);
+        return found;
     }
 
 
-    public static void status() {
-        System.out.println("=== Branches ===");              //print branch
-        Branch br = readObject(Utils.join(BRANCHES), Branch.class);
+    /** print the status of the branches, staging area and working directory to OUT */
+    public void status(PrintStream out) {
+        out.println("=== Branches ===");              //print branch
+        Branch br = session().branches();
         for (String k : br.branchMap.keySet()) {
             if (k.equals(br.currbc)) {
-                System.out.println("*" + br.currbc);
+                out.println("*" + br.currbc);
             } else {
-                System.out.println(k);
+                out.println(k);
             }
         }
-        System.out.println("");
+        out.println("");
 
-        System.out.println("=== Staged Files ===");          //print staged
-        List<String> stagedL = plainFilenamesIn(join(STAGE_ADD));
-        TreeSet<String> stagedS = new TreeSet<>();
-        for (int i = 0; i < stagedL.size(); i++) {
-            stagedS.add(stagedL.get(i));
-        }
+        out.println("=== Staged Files ===");          //print staged
+        Set<String> stagedS = session().staged().keySet();
         Iterator itr1 = stagedS.iterator();
         while (itr1.hasNext()) {
-            System.out.println(itr1.next());
+            out.println(itr1.next());
         }
-        System.out.println("");
+        out.println("");
 
-        System.out.println("=== Removed Files ===");          //print removed
-        List<String> removedL = plainFilenamesIn(join(STAGE_REMOVE));
-        TreeSet<String> removedS = new TreeSet<>();
-        for (int i = 0; i < removedL.size(); i++) {
-            removedS.add(removedL.get(i));
-        }
+        out.println("=== Removed Files ===");          //print removed
+        TreeSet<String> removedS = session().removed();
         Iterator itr2 = removedS.iterator();
         while (itr2.hasNext()) {
-            System.out.println(itr2.next());
-        }
-        System.out.println("");
-
-        System.out.println("=== Modifications Not Staged For Commit ===");
-        TreeSet<String> mod = new TreeSet<>();
-        HashMap<String, String> comFileMap = currCom().fileMap;
-        for (String k : comFileMap.keySet()) {
-            String fiSha1 = fileSha1(Utils.join(CWD, k));
-            String staSha1 = fileSha1(Utils.join(STAGE_ADD, k));
-            String rmSha1 = fileSha1(Utils.join(STAGE_REMOVE, k));
-            String cfileSha1 = comFileMap.get(k);
-            if (fiSha1 == null && rmSha1 == null) {
-                mod.add(k + " (deleted)");
-            } else if ((fiSha1 != null)
-                    && !(fiSha1.equals(cfileSha1)) && (staSha1 == null)) {
-                mod.add(k + " (modified)");
-            }
-        }
-        for (String l : stagedS) {                //Staged for addition
-            String fiSha2 = fileSha1(Utils.join(CWD, l));
-            String staSha2 = fileSha1(Utils.join(STAGE_ADD, l));
-            if (fiSha2 == null || !fiSha2.equals(staSha2)) {
-                mod.add(l);
-            }
+            out.println(itr2.next());
         }
+        out.println("");
+
+        out.println("=== Modifications Not Staged For Commit ===");
+        WorkTree scan = WorkTree.scan(this, currCom().fileMap);      //one parallel pass
+        TreeSet<String> mod = scan.modified;
         Iterator itr3 = mod.iterator();
         while (itr3.hasNext()) {
-            System.out.println(itr3.next());
+            out.println(itr3.next());
         }
-        System.out.println("");
+        out.println("");
 
-        System.out.println("=== Untracked Files ===");
-        TreeSet<String> untracked = new TreeSet<>();
-        List<String> fileinCWD = plainFilenamesIn(Utils.join(CWD));
-        for (String m : fileinCWD) {
-            if ((!comFileMap.containsKey(m) && !join(STAGE_ADD, m).exists())
-                    || join(STAGE_REMOVE, m).exists()) {
-                untracked.add(m);
-            }
-        }
+        out.println("=== Untracked Files ===");
+        TreeSet<String> untracked = scan.untracked;
         Iterator itr4 = untracked.iterator();
         while (itr4.hasNext()) {
-            System.out.println(itr4.next());
+            out.println(itr4.next());
         }
-        System.out.println("");
+        out.println("");
     }
 
 
     /**
      * checkout 1
      */
-    public static void checkout(String dash, String fname) {
+    public void checkout(String dash, String fname) {
         if (!dash.equals("--")) {
-            exitWithError("Incorrect operands.");
+            throw error("Incorrect operands.");
         }
         Commit prevHead = currCom();
         String fileSha1 = prevHead.fileMap.get(fname);
         if (fileSha1 == null) {
-            exitWithError("File does not exist in that commit.");
+            throw error("File does not exist in that commit.");
         }
-        File headfile = Utils.join(BLOB_FILES, fileSha1);
-        File overWrite = Utils.join(CWD, fname);
-        writeContents(overWrite, readContents(headfile));
+        File overWrite = Utils.join(cwd, fname);
+        blobs.copyTo(fileSha1, overWrite);
+        index.update(overWrite, fileSha1);
     }
 
     /**
      * checkout 2
      */
-    public static void checkout(String cid, String dash, String fname) {
+    public void checkout(String cid, String dash, String fname) {
         if (!dash.equals("--")) {
-            exitWithError("Incorrect operands.");
+            throw error("Incorrect operands.");
         }
-        File comFile = Utils.join(COMMIT, cid);
-
-        if (!comFile.exists()) {
-            String completeID = checkAbb(cid);
-            if (completeID == null) {
-                exitWithError("No commit with that id exists.");
-            } else {
-                comFile = Utils.join(COMMIT, completeID);
+        if (!commits.contains(cid)) {
+            cid = checkAbb(cid);
+            if (cid == null) {
+                throw error("No commit with that id exists.");
             }
         }
-        Commit getCom = readObject(comFile, Commit.class);   //get commit by its id
+        Commit getCom = readCommit(cid);   //get commit by its id
         String fileSha1 = getCom.fileMap.get(fname);
         if (fileSha1 == null) {
-            exitWithError("File does not exist in that commit.");
+            throw error("File does not exist in that commit.");
         }
-        File getF = Utils.join(BLOB_FILES, fileSha1);
-        File overWrite = Utils.join(CWD, fname);
-        writeContents(overWrite, readContents(getF));
+        File overWrite = Utils.join(cwd, fname);
+        blobs.copyTo(fileSha1, overWrite);
+        index.update(overWrite, fileSha1);
     }
 
     /**
      * checkout 3
      */
-    public static void checkout(String bname) {
-        Branch thisB = readObject(BRANCHES, Branch.class);
+    public void checkout(String bname) {
+        Branch thisB = session().branches();
         TreeMap<String, String> currMap = thisB.branchMap;      //get the branch map
         if (!currMap.containsKey(bname)) {
-            exitWithError("No such branch exists.");
+            throw error("No such branch exists.");
         }
         if (thisB.currbc.equals(bname)) {
-            exitWithError("No need to checkout the current branch.");
-        }
-        HashMap<String, String> currBFiles = currCom().fileMap;
-        File branHead = join(COMMIT, currMap.get(bname));
-        HashMap<String, String> checkFiles = readObject(branHead, Commit.class).fileMap;
-        List<String> trackcurrB = trackin(currBFiles);
-        List<String> trackcheckB = trackin(checkFiles);
-        for (String f : trackcheckB) {
-            if (!trackcurrB.contains(f)) {
-                exitWithError("There is an untracked file in the way; "
-                        + "delete it, or add and commit it first.");
-            }
+            throw error("No need to checkout the current branch.");
         }
-        for (String m : trackcurrB) {
-            if (!trackcheckB.contains(m)) {
-                restrictedDelete(join(CWD, m));
-            }
-        }
-        putfiles(checkFiles);
+        Commit currB = currCom();
+        Commit checkB = readCommit(currMap.get(bname));
+        switchFiles(currB, checkB);
         thisB.currbc = bname;
-        Utils.writeObject(BRANCHES, thisB);
-        clearStage();
+        session().branchesChanged();
+        session().clearStage();
     }
 
 
-    public static void reset(String cid) {
-        File comF = Utils.join(COMMIT, cid);
-        if (!comF.exists()) {
+    public void reset(String cid) {
+        if (!commits.contains(cid)) {
             cid = checkAbb(cid);
             if (cid == null) {
-                exitWithError("No commit with that id exists.");
-            } else {
-                comF = Utils.join(COMMIT, cid);
-            }
-        }
-        HashMap<String, String> currBFiles = currCom().fileMap;
-        HashMap<String, String> resetFiles = readObject(comF, Commit.class).fileMap;
-        List<String> trackcurrB = trackin(currBFiles);
-        List<String> trackreset = trackin(resetFiles);
-        for (String f: trackreset) {
-            if (!trackcurrB.contains(f)) {
-                exitWithError("There is an untracked file in the way; "
-                        + "delete it, or add and commit it first.");
+                throw error("No commit with that id exists.");
             }
         }
-        for (String l: trackcurrB) {
-            if (!trackreset.contains(l)) {
-                restrictedDelete(join(CWD, l));
-            }
-        }
-        putfiles(resetFiles);
-        Branch thisB = readObject(BRANCHES, Branch.class);
+        switchFiles(currCom(), readCommit(cid));
+        Branch thisB = session().branches();
         thisB.branchMap.put(thisB.currbc, cid);
-        writeObject(BRANCHES, thisB);
-        clearStage();
+        session().branchesChanged();
+        session().clearStage();
     }
 
 
-    public static void merge(String bname) {
-        if (plainFilenamesIn(STAGE_ADD).size() != 0 || plainFilenamesIn(STAGE_REMOVE).size() != 0) {
-            exitWithError("You have uncommitted changes.");       //check stage add and rm
+    public void merge(String bname) {
+        if (!session().stageEmpty()) {
+            throw error("You have uncommitted changes.");       //check stage add and rm
         }
-        if (!Branch.exist(bname)) {
-            exitWithError("A branch with that name does not exist.");
+        Branch branch = session().branches();
+        if (!branch.branchMap.containsKey(bname)) {
+            throw error("A branch with that name does not exist.");
         }
-        if (Branch.self(bname)) {
-            exitWithError("Cannot merge a branch with itself.");
+        if (branch.currbc.equals(bname)) {
+            throw error("Cannot merge a branch with itself.");
         }
-        Branch branch = readObject(BRANCHES, Branch.class);
-        String mergeSha = readObject(BRANCHES, Branch.class).branchMap.get(bname);
-        Commit mergeCom = readObject(join(COMMIT, mergeSha), Commit.class);
+        String mergeSha = branch.branchMap.get(bname);
+        Commit mergeCom = readCommit(mergeSha);
         Commit splitNode = findAncestor(currCom(), mergeCom);
         if (splitNode.getSha1().equals(mergeCom.getSha1())) {
-            exitWithError("Given branch is an ancestor of the current branch.");
+            throw error("Given branch is an ancestor of the current branch.");
         }
         if (splitNode.getSha1().equals(currCom().getSha1())) {
             checkout(bname);
-            exitWithError("Current branch fast-forwarded.");
+            throw error("Current branch fast-forwarded.");
         }
         List<String> trackcurrB = trackin(currCom().fileMap);
         List<String> trackmergeB = trackin(mergeCom.fileMap);
         for (String f: trackmergeB) {
             if (!trackcurrB.contains(f)) {
-                exitWithError("There is an untracked file in the way; delete it, "
+                throw error("There is an untracked file in the way; delete it, "
                         + "or add and commit it first.");
             }
         }
-        HashMap<String, String> current = currCom().fileMap;
-        HashMap<String, String> merge = mergeCom.fileMap;
-        HashMap<String, String> split = splitNode.fileMap;
+        Commit currB = currCom();
+        Map<String, String> current = currB.fileMap;
+        Map<String, String> merge = mergeCom.fileMap;
+        Map<String, String> split = splitNode.fileMap;
+        /* a file both sides left as in the split point needs nothing done */
+        TreeSet<String> changed = Commit.changedFiles(splitNode, currB);
+        changed.addAll(Commit.changedFiles(splitNode, mergeCom));
+        List<String> needed = new ArrayList<>();        //what may be copied or put in a conflict
+        for (String f : changed) {
+            String ours = current.get(f), theirs = merge.get(f);
+            if (theirs != null && !theirs.equals(ours)) {
+                needed.add(theirs);
+            }
+            if (ours != null && !ours.equals(split.get(f))) {
+                needed.add(ours);
+            }
+        }
+        blobs.prefetch(needed);     //after a partial fetch, all at once
         boolean conflict = false;
-        for (String f: current.keySet()) {
+        for (String f: changed) {
+            if (!current.containsKey(f)) {
+                continue;
+            }
             if (split.containsKey(f) && merge.containsKey(f)) {
                 if (split.get(f).equals(current.get(f))
                         && !merge.get(f).equals(current.get(f))) {   //case 1
-                    writeContents(join(CWD, f), readContents(join(BLOB_FILES, merge.get(f))));
+                    blobs.copyTo(merge.get(f), join(cwd, f));
+                    index.update(join(cwd, f), merge.get(f));
                     addFile(f);
                 } else if (!split.get(f).equals(current.get(f))
                         && !merge.get(f).equals(current.get(f))
@@ -493,9 +656,13 @@ public class Repository {
                 }
             }
         }
-        for (String i: merge.keySet()) {
+        for (String i: changed) {
+            if (!merge.containsKey(i)) {
+                continue;
+            }
             if (!split.containsKey(i) && !current.containsKey(i)) {
-                writeContents(join(CWD, i), readContents(join(BLOB_FILES, merge.get(i))));
+                blobs.copyTo(merge.get(i), join(cwd, i));
+                index.update(join(cwd, i), merge.get(i));
                 addFile(i);            //case 5
             } else if (split.containsKey(i) && !current.containsKey(i)
                     && !split.get(i).equals(merge.get(i))) {
@@ -512,86 +679,57 @@ public class Repository {
         String message = "Merged " + bname + " into " + branch.currbc + ".";
         merCommit(message, mergeCom);
         if (conflict) {
-            exitWithError("Encountered a merge conflict.");
+            throw error("Encountered a merge conflict.");
         }
     }
 
 
-    private static void conflict(String file, HashMap<String, String> current,
-                                 HashMap<String, String> merge) {
+    private void conflict(String file, Map<String, String> current,
+                          Map<String, String> merge) {
         String fir = "<<<<<<< HEAD\n";
         String currStr = "";
         if (current != null) {
-            currStr = readContentsAsString(join(BLOB_FILES, current.get(file)));
+            currStr = new String(blobs.read(current.get(file)), StandardCharsets.UTF_8);
         }
         String sep = "=======\n";
         String givenStr = "";
         if (merge != null) {
-            givenStr = readContentsAsString(join(BLOB_FILES, merge.get(file)));
+            givenStr = new String(blobs.read(merge.get(file)), StandardCharsets.UTF_8);
         }
         String las = ">>>>>>>\n";
-        writeContents(join(CWD, file), fir + currStr + sep + givenStr  + las);
+        writeContents(join(cwd, file), fir + currStr + sep + givenStr  + las);
     }
 
 
-    private static void merCommit(String message, Commit parent2) {
-        List<String> stageFile = plainFilenamesIn(STAGE_ADD);
-        List<String> rmFile = plainFilenamesIn(STAGE_REMOVE);
-        if (stageFile.size() == 0 && rmFile.size() == 0) {
-            exitWithError("No changes added to the commit.");
+    private void merCommit(String message, Commit parent2) {
+        if (session().stageEmpty()) {
+            throw error("No changes added to the commit.");
         }
         Commit curr = new Commit(currCom(), parent2, message);
-        curr = curr.setCommit();
-        curr.safeCommit();    //save curr Node
-        Branch.updateBranch(curr);
-    }
-
-
-    private static Commit findAncestor(Commit a, Commit b) {
-        LinkedList<String> parentA = new LinkedList<>();
-        LinkedList<String> fringeA = new LinkedList<>();
-        fringeA.add(a.getSha1());
-        while (!fringeA.isEmpty()) {
-            String currSha = fringeA.pop();
-            Commit curr = readObject(join(COMMIT, currSha), Commit.class);
-            if (curr.parent != null) {
-                for (String c : curr.parent) {
-                    if (!fringeA.contains(c) && !parentA.contains(c)) {
-                        fringeA.add(c);
-                    }
-                }
-            }
-            parentA.add(currSha);
-        }
-        LinkedList<String> parentB = new LinkedList<>();
-        LinkedList<String> fringeB = new LinkedList<>();
-        fringeB.add(b.getSha1());
-        while (!fringeB.isEmpty()) {
-            String currSha = fringeB.pop();
-            Commit curr = readObject(join(COMMIT, currSha), Commit.class);
-            if (curr.parent != null) {
-                for (String c : curr.parent) {
-                    if (!fringeB.contains(c) && !parentB.contains(c)) {
-                        fringeB.add(c);
-                    }
-                }
-            }
-            parentB.add(currSha);
-        }
-        while (parentA.size() > 0) {
-            String rt = parentA.pop();
-            if (parentB.contains(rt)) {
-                return readObject(join(COMMIT, rt), Commit.class);
+        curr = curr.setCommit(this);
+        curr.safeCommit(this);    //save curr Node
+        updateBranch(curr);
+        commits.autoPack();
+        trees.autoPack();
+        blobs.autoPack();
+    }
+
+
+    private Commit findAncestor(Commit a, Commit b) {
+        BitSet ancestorsB = graph.ancestorSet(graph.position(b.getSha1()));
+        for (int rt : graph.ancestors(graph.position(a.getSha1()))) {
+            if (ancestorsB.get(rt)) {
+                return readCommit(graph.id(rt));
             }
         }
         return null;
     }
 
 
-    public static void addremote(String rmname, String routine) {
-        File remote = join(CONFIG, rmname);
+    public void addremote(String rmname, String routine) {
+        File remote = join(config, rmname);
         if (remote.exists()) {
-            exitWithError("A remote with that name already exists.");
+            throw error("A remote with that name already exists.");
         }
         String content = "";
         while (routine.length() != 0) {
@@ -607,183 +745,193 @@ public class Repository {
     }
 
 
-    public static void rmremote(String rmname) {
-        File remote = join(CONFIG, rmname);
-        if (!remote.exists()) {
-            exitWithError("A remote with that name does not exist.");
+    /** read objects missing here from the repository whose .gitlet directory
+     * is PATH too, so fetch does not copy what that one already has */
+    public void addAlternate(String path) {
+        File other = new File(path);
+        other = (other.isAbsolute() ? other : join(cwd, path)).toPath().normalize().toFile();
+        if (!join(other, "commit").isDirectory()) {
+            throw error("Alternate directory not found.");
+        }
+        if (other.equals(gitletDir.toPath().normalize().toFile())) {
+            throw error("A repository cannot be its own alternate.");
+        }
+        String listed = alternatesFile.isFile() ? readContentsAsString(alternatesFile) : "";
+        if (!Arrays.asList(listed.split("\n")).contains(other.getPath())) {
+            writeContents(alternatesFile, listed + other.getPath() + "\n");
         }
-        remote.delete();
     }
 
 
-    public static void push(String rmname, String bname) {
-        File remote = join(readContentsAsString(join(CONFIG, rmname)));     //remoteFile path
+    public void rmremote(String rmname) {
+        File remote = join(config, rmname);
         if (!remote.exists()) {
-            exitWithError("Remote directory not found.");
+            throw error("A remote with that name does not exist.");
         }
-        Branch currBranch = readObject(join(BRANCHES), Branch.class);
-        Branch rmBranch = readObject(join(remote, "branches"), Branch.class);
-        LinkedList<String> ancestors = travelAncestor(currCom());
+        remote.delete();
+    }
+
+
+    public void push(String rmname, String bname) {
+        Remote rm = remote(rmname);
+        Branch rmBranch = Branch.read(rm.branches);
+        String head = session().headId();
         String rmhead = rmBranch.branchMap.get(bname);
-        if (!ancestors.contains(rmhead)) {
-            exitWithError("Please pull down remote changes before pushing.");
-        } else if (rmBranch.branchMap.get(bname) == null) {
-            rmBranch.branchMap.put(currBranch.currbc, currCom().getSha1());
-            for (String s: ancestors) {
-                File addCom = join(remote, "commit", s);
-                writeContents(addCom, readContents(join(COMMIT, s)));
-            }
-        } else {
-            LinkedList<String> addS = new LinkedList<>();
-            String curr = ancestors.pop();
-            while (!curr.equals(rmhead)) {
-                addS.add(curr);
-                curr = ancestors.pop();
+        if (rmhead != null) {
+            int rmPos = graph.position(rmhead);     //NONE if we do not have it
+            if (rmPos == CommitGraph.NONE || !graph.isAncestor(rmPos, graph.position(head))) {
+                throw error("Please pull down remote changes before pushing.");
             }
-            for (String m: addS) {
-                File addCom = join(remote, "commit", m);
-                writeContents(addCom, readContents(join(COMMIT, m)));
-            }
-            rmBranch.branchMap.put(bname, currCom().getSha1());
         }
-        writeObject(join(remote, "branches"), rmBranch);
+        rm.pushFrom(this, head);        //only what the remote is missing
+        rmBranch.branchMap.put(bname, head);
+        rmBranch.write(rm.branches);
     }
 
 
-    private static LinkedList travelAncestor(Commit a) {
-        LinkedList<String> parentA = new LinkedList<>();
-        LinkedList<String> fringeA = new LinkedList<>();
-        fringeA.add(a.getSha1());
-        while (!fringeA.isEmpty()) {
-            String currSha = fringeA.pop();
-            Commit curr = readObject(join(COMMIT, currSha), Commit.class);
-            if (curr.parent != null) {
-                for (String c : curr.parent) {
-                    if (!fringeA.contains(c) && !parentA.contains(c)) {
-                        fringeA.add(c);
-                    }
-                }
-            }
-            parentA.add(currSha);
+    public void fetch(String rmname, String bname) {
+        fetch(rmname, bname, false);
+    }
+
+
+    /** fetch, leaving the blobs in the remote if PARTIAL
+     * they are copied over when checkout or merge first needs them */
+    public void fetch(String rmname, String bname, boolean partial) {
+        Remote rm = remote(rmname);
+        Branch rmBranch = Branch.read(rm.branches);
+        String rmHead = rmBranch.branchMap.get(bname);
+        if (rmHead == null) {
+            throw error("That remote does not have that branch.");
+        }
+        if (partial) {
+            addPromisor(rm.dir);        //before anything refers to what it keeps
         }
-        return parentA;
+        rm.fetchInto(this, rmHead, partial);     //only what we are missing
+        session().branches().branchMap.put(rmname + "/" + bname, rmHead);
+        session().branchesChanged();
     }
 
 
-    public static void fetch(String rmname, String bname) {
-        File remote = join(readContentsAsString(join(CONFIG, rmname)));     //remoteFile path
+    /** record that the repository whose .gitlet directory is DIR keeps blobs
+     * a partial fetch left out */
+    private void addPromisor(File dir) {
+        String path = dir.getAbsoluteFile().toPath().normalize().toString();
+        String listed = promisorsFile.isFile() ? readContentsAsString(promisorsFile) : "";
+        if (!Arrays.asList(listed.split("\n")).contains(path)) {
+            writeContents(promisorsFile, listed + path + "\n");
+            fsync(promisorsFile);
+        }
+    }
+
+
+    /** the remote repository named RMNAME */
+    private Remote remote(String rmname) {
+        File remote = join(readContentsAsString(join(config, rmname)));     //remoteFile path
         if (!remote.exists()) {
-            exitWithError("Remote directory not found.");
-        }
-        Branch rmBranch = readObject(join(remote, "branches"), Branch.class);
-        if (rmBranch.branchMap.get(bname) == null) {
-            exitWithError("That remote does not have that branch.");
-        }
-        Branch currBranch = readObject(join(BRANCHES), Branch.class);
-        File rmCom = join(remote, "commit", rmBranch.branchMap.get(bname));
-        Commit rmHead = readObject(rmCom, Commit.class);
-        LinkedList<String> copy = fetchAncestor(rmHead, currCom(), remote);
-        for (String c: copy) {
-            File blobFile = Utils.join(remote, "blob_files");
-            Commit copyC = readObject(join(remote, "commit", c), Commit.class);
-            writeObject(join(COMMIT, c), copyC);
-            for (String f : copyC.fileMap.keySet()) {
-                File addF = join(blobFile, copyC.fileMap.get(f));
-                writeContents(join(BLOB_FILES, copyC.fileMap.get(f)), readContents(addF));
-            }
+            throw error("Remote directory not found.");
         }
-        currBranch.branchMap.put(rmname + "/" + bname, rmHead.getSha1());
-        writeObject(BRANCHES, currBranch);
+        return new Remote(remote);
     }
 
 
-    private static LinkedList<String> fetchAncestor(Commit a, Commit b, File remote) {
-        LinkedList<String> parentA = new LinkedList<>();
-        LinkedList<String> fringeA = new LinkedList<>();
-        fringeA.add(a.getSha1());
-        while (!fringeA.isEmpty()) {
-            String currSha = fringeA.pop();
-            Commit curr = readObject(join(remote, "commit", currSha), Commit.class);
-            if (curr.parent != null) {
-                for (String c : curr.parent) {
-                    if (!fringeA.contains(c) && !parentA.contains(c)) {
-                        fringeA.add(c);
-                    }
-                }
-            }
-            parentA.add(currSha);
-        }
-        LinkedList<String> parentB = new LinkedList<>();
-        LinkedList<String> fringeB = new LinkedList<>();
-        fringeB.add(b.getSha1());
-        while (!fringeB.isEmpty()) {
-            String currSha = fringeB.pop();
-            Commit curr = readObject(join(COMMIT, currSha), Commit.class);
-            if (curr.parent != null) {
-                for (String c : curr.parent) {
-                    if (!fringeB.contains(c) && !parentB.contains(c)) {
-                        fringeB.add(c);
-                    }
-                }
-            }
-            parentB.add(currSha);
+    /** delete the commits, trees and blobs no branch or the stage refers to */
+    public void gc() {
+        Collector.collect(this);
+    }
+
+
+    /** write branch BNAME and its history to the bundle FNAME */
+    public void bundleCreate(String fname, String bname) {
+        String head = session().branches().branchMap.get(bname);
+        if (head == null) {
+            throw error("A branch with that name does not exist.");
         }
-        LinkedList<String> rtAncestors = new LinkedList<>();
-        while (parentA.size() > 0) {
-            String rt = parentA.pop();
-            if (parentB.contains(rt)) {
-                return rtAncestors;
-            }
-            rtAncestors.add(rt);
+        Bundle.create(this, bundleFile(fname), bname, head);
+    }
+
+
+    /** read the bundle FNAME in; each of its branches B becomes bundle/B */
+    public void unbundle(String fname) {
+        File file = bundleFile(fname);
+        if (!file.isFile()) {
+            throw error("Bundle file not found.");
         }
-        return null;
+        for (Map.Entry<String, String> ref : Bundle.unbundle(this, file).entrySet()) {
+            session().branches().branchMap.put("bundle/" + ref.getKey(), ref.getValue());
+        }
+        session().branchesChanged();
     }
 
 
-    public static void pull(String rmname, String bname) {
+    /** FNAME, relative to cwd unless absolute */
+    private File bundleFile(String fname) {
+        File f = new File(fname);
+        return f.isAbsolute() ? f : join(cwd, fname);
+    }
+
+
+    public void pull(String rmname, String bname) {
         fetch(rmname, bname);
         merge(rmname + "/" + bname);
     }
 
 
-    /** check if the abbreviation commit id exist, return null if not */
-    private static String checkAbb(String cid) {
-        List<String> commitF = plainFilenamesIn(COMMIT);
-        for (int i = 0; i < commitF.size(); i++) {
-            if (commitF.get(i).contains(cid)) {
-                return commitF.get(i);
-            }
+    /** return the id of the one commit whose id starts with CID, or null if none does
+     * a prefix of more than one is an error */
+    private String checkAbb(String cid) {
+        List<String> found = commitIndex.resolve(cid, 2);
+        if (found.size() > 1) {
+            throw error("Ambiguous commit id.");
         }
-        return null;
+        return found.isEmpty() ? null : found.get(0);
     }
 
 
-    /** clear Stage files */
-    private static void clearStage() {
-        List<String> addFile = plainFilenamesIn(STAGE_ADD);        //reset the current branch
-        for (String a: addFile) {
-            Utils.join(STAGE_ADD, a).delete();
-        }                                                          //clear the staging area
-        List<String> rmFile = plainFilenamesIn(STAGE_REMOVE);
-        for (String b: rmFile) {
-            Utils.join(STAGE_REMOVE, b).delete();
+    /** helper function, switch the files in cwd from commit FROM's to commit TO's
+     * only files that differ between the two are checked and deleted */
+    private void switchFiles(Commit from, Commit to) {
+        Map<String, String> fromFiles = from.fileMap;
+        Map<String, String> toFiles = to.fileMap;
+        TreeSet<String> changed = Commit.changedFiles(from, to);
+        for (String f : changed) {
+            if (toFiles.containsKey(f) && !fromFiles.containsKey(f) && join(cwd, f).isFile()) {
+                throw error("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+            }
+        }
+        for (String m : changed) {
+            if (!toFiles.containsKey(m) && join(cwd, m).isFile()) {
+                restrictedDelete(join(cwd, m));
+            }
         }
+        putfiles(toFiles, changed);
     }
 
-
-    /** helper function, put the hashset files in CWD */
-    private static void putfiles(HashMap<String, String> map) {
+    /** helper function, put the hashset files in cwd
+     * files not in CHANGED are only rewritten if the working copy differs */
+    private void putfiles(Map<String, String> map, Set<String> changed) {
+        List<String> put = new ArrayList<>();
         for (String f: map.keySet()) {
-            File putin = join(CWD, f);
-            File getF = Utils.join(BLOB_FILES, map.get(f));
-            writeContents(putin, readContents(getF));
+            if (changed.contains(f) || !map.get(f).equals(fileSha1(join(cwd, f)))) {
+                put.add(f);
+            }
+        }
+        List<String> ids = new ArrayList<>(put.size());
+        for (String f : put) {
+            ids.add(map.get(f));
+        }
+        blobs.prefetch(ids);        //after a partial fetch, all at once
+        for (String f : put) {
+            File putin = join(cwd, f);
+            blobs.copyTo(map.get(f), putin);
+            index.update(putin, map.get(f));
         }
     }
 
-    /** return files name list if this file in CWD tracked in branch's commit filemap
+    /** return files name list if this file in cwd tracked in branch's commit filemap
      * tracked means filename exist, no need same content */
-    public static List<String> trackin(HashMap<String, String> map) {
-        List<String> localFiles = plainFilenamesIn(CWD);
+    public List<String> trackin(Map<String, String> map) {
+        List<String> localFiles = plainFilenamesIn(cwd);
         List<String> tracked = new ArrayList<>();
         for (String f: localFiles) {
             if (map.containsKey(f)) {
@@ -794,20 +942,47 @@ public class Repository {
     }
 
 
-    /** get the current branch's head commit */
-    public static Commit currCom() {
-        Branch thisB = readObject(BRANCHES, Branch.class);
-        String headSha1 = thisB.branchMap.get(thisB.currbc);
-        Commit prevHead = readObject(Utils.join(COMMIT, headSha1), Commit.class);
-        return prevHead;
+    /** drop whatever another process may have changed since the last command
+     * commits, trees and cached blob contents never change and are kept */
+    public void refresh() {
+        session = null;
+        index.refresh();
+        graph.refresh();
+        commitIndex.refresh();
+        commits.refresh();
+        trees.refresh();
+        blobs.refresh();
+        upgrade();
     }
 
 
-    /** return sha1 of file, if file doesn't exist, return null */
-    public static String fileSha1(File file) {
-        if (!file.exists()) {
-            return null;
+    /** end the command in progress, writing back what it changed but left in memory
+     * the branch table and the index; commands on an open repository should be followed by this */
+    public void save() {
+        if (session != null) {
+            session.close();
+            session = null;
         }
-        return Utils.sha1(readContents(file));
+        index.save();
+    }
+
+
+    /** read commit ID from this repository */
+    Commit readCommit(String id) {
+        return Commit.read(commits, trees, id);
+    }
+
+
+    /** get the current branch's head commit */
+    public Commit currCom() {
+        return session().head();
+    }
+
+
+    /** return sha1 of file, if file doesn't exist, return null
+     * unchanged files are looked up in the index instead of rehashed,
+     * changed ones are hashed as a stream */
+    public String fileSha1(File file) {
+        return index.sha1(file);
     }
 }
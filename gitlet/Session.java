@@ -0,0 +1,252 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** What one command works on, each read at most once: the branch table,
+ *  the current branch's head commit and the staging area.  Commands change
+ *  the branch table in place and mark it changed, and change the staging
+ *  area through this class; each is written back once, by close(), when
+ *  the command is over.
+ *
+ *  The staging area is one file, STAGE: "GSTG", version, the number of
+ *  entries, then for each its name, 0 for an addition or 1 for a removal,
+ *  and the 20-byte blob id staged (for a removal, the one committed).  The
+ *  blob of a staged addition is already in the store, written once by
+ *  stage().  Files left in the stage_add and stage_remove directories of
+ *  older repositories are moved into it when it is first read: their
+ *  blobs are stored and the staging file written, both on the disk,
+ *  before the old files and directories are deleted.
+ *
+ *  @author Luna, Tian
+ */
+class Session {
+
+    /** The repository this command runs on. */
+    private final Repository repo;
+
+    /** The branch table, once read, and whether it has changed since. */
+    private Repository.Branch table;
+    private boolean tableChanged;
+
+    /** The head commit last read; reread if the table moves the head. */
+    private Commit head;
+
+    /** Magic number and version of the staging file. */
+    static final int MAGIC = 0x47535447, VERSION = 1;
+
+    /** Blob ids staged for addition by name, and the names staged for
+     *  removal with their committed ids, once read. */
+    private TreeMap<String, String> added, removed;
+
+    /** True iff the staging area differs from its file. */
+    private boolean stageChanged;
+
+    /** The blobs of REPO, as new commits store them. */
+    private BlobHashMap blobMap;
+
+    Session(Repository repo) {
+        this.repo = repo;
+    }
+
+    /** Return the branch table.  Callers that change it call branchesChanged. */
+    Repository.Branch branches() {
+        if (table == null) {
+            table = repo.readBranches();
+        }
+        return table;
+    }
+
+    /** Note that the branch table has changed and needs writing. */
+    void branchesChanged() {
+        tableChanged = true;
+    }
+
+    /** Return the id of the head commit of the current branch, without reading it. */
+    String headId() {
+        Repository.Branch b = branches();
+        return b.branchMap.get(b.currbc);
+    }
+
+    /** Return the head commit of the current branch. */
+    Commit head() {
+        String id = headId();
+        if (head == null || !head.getSha1().equals(id)) {
+            head = repo.readCommit(id);
+        }
+        return head;
+    }
+
+    BlobHashMap blobs() {
+        if (blobMap == null) {
+            blobMap = new BlobHashMap(repo.blobs);
+        }
+        return blobMap;
+    }
+
+    /** Return the blob ids staged for addition by name, in name order. */
+    TreeMap<String, String> staged() {
+        readStage();
+        return added;
+    }
+
+    /** Return the names staged for removal, in sorted order. */
+    TreeSet<String> removed() {
+        readStage();
+        return new TreeSet<>(removed.keySet());
+    }
+
+    /** True iff nothing is staged. */
+    boolean stageEmpty() {
+        readStage();
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    /** Stage SOURCE, whose blob id is ID, for addition as NAME, storing
+     *  the blob now, as a delta against the version in the head commit if
+     *  that pays. */
+    void stage(String name, File source, String id) {
+        blobs().insert(id, source, head().fileMap.get(name));
+        readStage();
+        added.put(name, id);
+        stageChanged = true;
+    }
+
+    /** Stage NAME, whose last committed contents are blob ID, for removal. */
+    void stageRemoval(String name, String id) {
+        readStage();
+        removed.put(name, id);
+        stageChanged = true;
+    }
+
+    /** Take NAME out of the staged additions, returning true iff it was there. */
+    boolean unstage(String name) {
+        readStage();
+        boolean was = added.remove(name) != null;
+        stageChanged |= was;
+        return was;
+    }
+
+    /** Take NAME out of the staged removals. */
+    void unstageRemoval(String name) {
+        readStage();
+        stageChanged |= removed.remove(name) != null;
+    }
+
+    /** Empty the staging area. */
+    void clearStage() {
+        if (!stageEmpty()) {
+            added.clear();
+            removed.clear();
+            stageChanged = true;
+        }
+    }
+
+    /** Write back what this command changed. */
+    void close() {
+        if (tableChanged) {
+            repo.writeBranches(table);
+            tableChanged = false;
+        }
+        if (stageChanged) {
+            writeStage();
+            stageChanged = false;
+        }
+    }
+
+    /** Read the staging file, and any staged files of an older repository,
+     *  if that has not been done yet. */
+    private void readStage() {
+        if (added != null) {
+            return;
+        }
+        added = new TreeMap<>();
+        removed = new TreeMap<>();
+        if (repo.stageFile.isFile()) {
+            try (DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(Utils.readContents(repo.stageFile)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("not a staging file");
+                }
+                byte[] id = new byte[Pack.ID_BYTES];
+                for (int n = in.readInt(); n > 0; n -= 1) {
+                    String name = in.readUTF();
+                    boolean removal = in.readByte() != 0;
+                    in.readFully(id);
+                    (removal ? removed : added).put(name, Utils.toHex(id));
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        List<String> adds = names(repo.stageAdd), removes = names(repo.stageRemove);
+        if (adds.isEmpty() && removes.isEmpty()) {
+            return;
+        }
+        /* The old files go only once what replaces them is on the disk. */
+        for (String name : adds) {
+            File f = Utils.join(repo.stageAdd, name);
+            String id = Utils.sha1Contents(f);
+            blobs().insert(id, f);
+            added.put(name, id);
+        }
+        for (String name : removes) {
+            removed.put(name, Utils.sha1Contents(Utils.join(repo.stageRemove, name)));
+        }
+        repo.blobs.sync(added.values());
+        writeStage();
+        Utils.fsync(repo.stageFile);
+        Utils.fsync(repo.gitletDir);
+        for (String name : adds) {
+            Utils.join(repo.stageAdd, name).delete();
+        }
+        for (String name : removes) {
+            Utils.join(repo.stageRemove, name).delete();
+        }
+        repo.stageAdd.delete();
+        repo.stageRemove.delete();
+    }
+
+    /** Write the staging area to its file, through a temporary file. */
+    private void writeStage() {
+        try {
+            File tmp = File.createTempFile("stage-", ".tmp", repo.gitletDir);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(added.size() + removed.size());
+                for (Map.Entry<String, String> e : added.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeByte(0);
+                    out.write(Utils.fromHex(e.getValue()));
+                }
+                for (Map.Entry<String, String> e : removed.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeByte(1);
+                    out.write(Utils.fromHex(e.getValue()));
+                }
+            }
+            Files.move(tmp.toPath(), repo.stageFile.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the names of the plain files in DIR, none if it does not exist. */
+    private static List<String> names(File dir) {
+        List<String> names = Utils.plainFilenamesIn(dir);
+        return names == null ? List.of() : names;
+    }
+}
@@ -0,0 +1,100 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/** Repository settings, kept in a repository's settings file as
+ *  "key=value" lines.  Missing settings, or a missing file, mean the
+ *  defaults.
+ *
+ *  core.codec         codec for new objects: store or deflate
+ *  core.compression   deflate level, 0 (fastest) to 9 (smallest)
+ *  core.format        repository format: 1 once every object has a
+ *                     codec header, missing in older repositories (see
+ *                     ObjectStore.upgrade)
+ *  gc.pruneExpire     seconds gc keeps unreferenced objects after they
+ *                     were written (see Collector)
+ *  gc.auto            loose objects a store holds before they are
+ *                     packed, and the most that fetch or push copies
+ *                     loose (see ObjectStore)
+ *
+ *  @author Luna, Tian
+ */
+class Settings {
+
+    /** The settings written by init. */
+    static final String DEFAULTS = "core.codec=deflate\n"
+            + "core.compression=6\n"
+            + "core.format=" + ObjectStore.FORMAT + "\n";
+
+    /** The settings file. */
+    private final File file;
+
+    /** The loaded settings, or null until first needed. */
+    private Properties props;
+
+    Settings(File file) {
+        this.file = file;
+    }
+
+    /** Return setting KEY, or DEFAULTVALUE if it is not set. */
+    String get(String key, String defaultValue) {
+        if (props == null) {
+            props = new Properties();
+            if (file.isFile()) {
+                try {
+                    props.load(new StringReader(
+                            Utils.readContentsAsString(file)));
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return props.getProperty(key, defaultValue).trim();
+    }
+
+    /** Set KEY to VALUE in the settings file, replacing the file at once
+     *  and forcing it to the disk. */
+    void set(String key, String value) {
+        StringBuilder text = new StringBuilder();
+        if (file.isFile()) {
+            for (String line : Utils.readContentsAsString(file).split("\n")) {
+                String name = line.split("[=:]", 2)[0].trim();
+                if (!line.isBlank() && !name.equals(key)) {
+                    text.append(line).append("\n");
+                }
+            }
+        }
+        text.append(key).append("=").append(value).append("\n");
+        File tmp = new File(file.getPath() + ".tmp");
+        Utils.writeContents(tmp, text.toString());
+        Utils.fsync(tmp);
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Utils.fsync(file.getParentFile());
+        props = null;
+    }
+
+    /** Forget the loaded settings, so they are read again when next needed. */
+    void reload() {
+        props = null;
+    }
+
+    /** Return setting KEY as an integer, or DEFAULTVALUE if it is not set
+     *  or not a number. */
+    int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(get(key, Integer.toString(defaultValue)));
+        } catch (NumberFormatException excp) {
+            return defaultValue;
+        }
+    }
+}
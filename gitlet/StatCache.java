@@ -0,0 +1,250 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/** The index: for each file we have hashed, its size, modification time in
+ *  nanoseconds, inode and blob id.  A file whose stat data still matches
+ *  its entry is not read again.
+ *
+ *  An entry whose modification time is not older than the index file
+ *  itself is "racy": the file may have changed again within the same clock
+ *  tick after it was hashed, so, as in git, it is always rehashed.
+ *
+ *  The file is "GSTC", version, the number of entries, then for each entry
+ *  its path (relative to the working directory), size, mtime, inode and
+ *  20-byte id.  It is rewritten through a temporary file and an atomic
+ *  rename, and only when an entry changed.
+ *
+ *  @author Luna, Tian
+ */
+class StatCache {
+
+    /** Magic number and version of the index file. */
+    static final int MAGIC = 0x47535443, VERSION = 1;
+
+    /** One file's cached state. */
+    private static class Entry {
+        long size;
+        long mtime;
+        long inode;
+        String id;
+
+        Entry(long size, long mtime, long inode, String id) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.id = id;
+        }
+
+        boolean matches(long[] stat) {
+            return size == stat[0] && mtime == stat[1] && inode == stat[2];
+        }
+    }
+
+    /** The index file. */
+    private final File file;
+
+    /** The directory entry paths are relative to. */
+    private final File root;
+
+    /** Entries by path, or null until loaded. */
+    private TreeMap<String, Entry> entries;
+
+    /** Modification time of the index file when it was loaded. */
+    private long written;
+
+    /** True iff ENTRIES differs from FILE. */
+    private boolean dirty;
+
+    StatCache(File file, File root) {
+        this.file = file;
+        this.root = root;
+    }
+
+    /** Return the blob id of the contents of F, or null if F does not
+     *  exist, hashing it only if it changed since it was last seen.  Safe
+     *  to call from several threads; only the lookups are serialized. */
+    String sha1(File f) {
+        String key = key(f);
+        long[] stat = stat(f);
+        String id = cached(key, stat);
+        if (id != null || stat == null) {
+            return id;
+        }
+        id = Utils.sha1Contents(f);
+        put(key, stat, id);
+        return id;
+    }
+
+    /** Return the id cached for KEY if STAT still matches it, else null.
+     *  A null STAT means the file is gone. */
+    private synchronized String cached(String key, long[] stat) {
+        load();
+        if (stat == null) {
+            if (entries.remove(key) != null) {
+                dirty = true;
+            }
+            return null;
+        }
+        Entry e = entries.get(key);
+        if (e != null && e.matches(stat)) {
+            if (e.mtime < written) {
+                return e.id;
+            }
+            /* Racy: once rewritten, the index is newer than the file. */
+            dirty = true;
+        }
+        return null;
+    }
+
+    /** Record that F has just been written with the contents of blob ID. */
+    void update(File f, String id) {
+        long[] stat = stat(f);
+        if (stat != null) {
+            put(key(f), stat, id);
+        }
+    }
+
+    /** Forget F, which has been deleted. */
+    synchronized void remove(File f) {
+        load();
+        if (entries.remove(key(f)) != null) {
+            dirty = true;
+        }
+    }
+
+    /** Forget the loaded entries if another process rewrote FILE since. */
+    synchronized void refresh() {
+        if (entries != null && !dirty) {
+            long[] stat = stat(file);
+            if (stat == null || stat[1] != written) {
+                entries = null;
+            }
+        }
+    }
+
+    /** Write the index out if anything changed. */
+    synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        try {
+            File tmp = File.createTempFile("index-", ".tmp", file.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> me : entries.entrySet()) {
+                    Entry e = me.getValue();
+                    out.writeUTF(me.getKey());
+                    out.writeLong(e.size);
+                    out.writeLong(e.mtime);
+                    out.writeLong(e.inode);
+                    out.write(Utils.fromHex(e.id));
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        /* as if just loaded, so entries older than the new file are not racy */
+        long[] stat = stat(file);
+        written = stat == null ? 0 : stat[1];
+        dirty = false;
+    }
+
+    private synchronized void put(String key, long[] stat, String id) {
+        load();
+        Entry e = entries.get(key);
+        if (e != null && e.matches(stat) && e.id.equals(id)) {
+            return;
+        }
+        entries.put(key, new Entry(stat[0], stat[1], stat[2], id));
+        dirty = true;
+    }
+
+    /** Return the path of F relative to ROOT, as stored in the index. */
+    private String key(File f) {
+        Path p = f.toPath().toAbsolutePath().normalize();
+        Path r = root.toPath().toAbsolutePath().normalize();
+        return p.startsWith(r) ? r.relativize(p).toString() : p.toString();
+    }
+
+    /** Return {size, mtime in nanoseconds, inode} of F, or null if F is
+     *  not a normal file.  The inode is 0 where the platform has none. */
+    static long[] stat(File f) {
+        Path p = f.toPath();
+        try {
+            Map<String, Object> attrs = Files.readAttributes(p, "unix:size,lastModifiedTime,ino,isRegularFile");
+            if (!(Boolean) attrs.get("isRegularFile")) {
+                return null;
+            }
+            return new long[] {(Long) attrs.get("size"),
+                nanos((FileTime) attrs.get("lastModifiedTime")), (Long) attrs.get("ino")};
+        } catch (UnsupportedOperationException | IllegalArgumentException excp) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                if (!attrs.isRegularFile()) {
+                    return null;
+                }
+                return new long[] {attrs.size(), nanos(attrs.lastModifiedTime()), 0};
+            } catch (IOException excp2) {
+                return null;
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    private static long nanos(FileTime t) {
+        return t.to(TimeUnit.NANOSECONDS);
+    }
+
+    /** Read FILE, if that has not been done yet. */
+    private void load() {
+        if (entries != null) {
+            return;
+        }
+        entries = new TreeMap<>();
+        long[] stat = stat(file);
+        if (stat == null) {
+            return;
+        }
+        written = stat[1];
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Utils.readContents(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("bad index");
+            }
+            int n = in.readInt();
+            byte[] id = new byte[Pack.ID_BYTES];
+            for (int i = 0; i < n; i++) {
+                String key = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                long inode = in.readLong();
+                in.readFully(id);
+                entries.put(key, new Entry(size, mtime, inode, Utils.toHex(id)));
+            }
+        } catch (IOException excp) {
+            /* Only a cache: start over and rewrite it. */
+            entries.clear();
+            dirty = true;
+        }
+    }
+}
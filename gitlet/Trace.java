@@ -0,0 +1,210 @@
+package gitlet;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Counters and timers for the operations a command spends its time in:
+ *  calls, bytes and nanoseconds for each Op, and the number of objects
+ *  decoded by class.  "java gitlet.Main --trace COMMAND ..." prints them
+ *  for that command as one line of JSON on standard error, and
+ *  "--trace=FILE" appends the line to FILE; setting GITLET_TRACE to 1, or
+ *  to a file name, does the same for every command.
+ *
+ *  Run with -Dgitlet.jfr=true, and each span is also a gitlet.Span JFR
+ *  event, so a flight recording with that event enabled lines the spans
+ *  up with GC and everything else.  Loading JFR takes longer than most
+ *  commands do, so without the property it is never touched.
+ *
+ *  With neither on, start() is two tests and returns null, and end() of
+ *  null returns at once.
+ *
+ *  @author Luna, Tian
+ */
+class Trace {
+
+    /** The operations measured. */
+    enum Op {
+        READ_OBJECT("readObject"), WRITE_OBJECT("writeObject"),
+        READ_CONTENTS("readContents"), WRITE_CONTENTS("writeContents"),
+        SHA1("sha1"), LIST("plainFilenamesIn"),
+        STORE_READ("ObjectStore.read"), STORE_WRITE("ObjectStore.write"),
+        STORE_COPY("ObjectStore.copy");
+
+        /** The name in reports. */
+        final String label;
+
+        Op(String label) {
+            this.label = label;
+        }
+    }
+
+    /** The JFR event for one span, only loaded if JFR is true. */
+    @Name("gitlet.Span")
+    @Label("Gitlet Span")
+    @Category("Gitlet")
+    @Description("One timed operation of a gitlet command")
+    @StackTrace(false)
+    static class SpanEvent extends Event {
+        /** Used only to ask whether SpanEvents are being recorded. */
+        private static final SpanEvent PROBE = new SpanEvent();
+
+        @Label("Operation")
+        String op;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        /** Return a begun SpanEvent, or null if none are being recorded. */
+        static SpanEvent open() {
+            if (!PROBE.isEnabled()) {
+                return null;
+            }
+            SpanEvent event = new SpanEvent();
+            event.begin();
+            return event;
+        }
+
+        /** Commit this event, for OP, which moved BYTES. */
+        void close(Op o, long b) {
+            op = o.label;
+            bytes = b;
+            commit();
+        }
+    }
+
+    /** True if spans are also JFR events. */
+    private static final boolean JFR = Boolean.getBoolean("gitlet.jfr");
+
+    /** True while a command is being traced. */
+    private static volatile boolean enabled;
+
+    /** Calls, bytes and nanoseconds by Op. */
+    private static final LongAdder[][] COUNTS = new LongAdder[Op.values().length][3];
+
+    /** Objects decoded, by class name. */
+    private static final ConcurrentHashMap<String, LongAdder> DECODED = new ConcurrentHashMap<>();
+
+    /** When tracing began. */
+    private static long began;
+
+    static {
+        for (LongAdder[] c : COUNTS) {
+            for (int i = 0; i < c.length; i++) {
+                c[i] = new LongAdder();
+            }
+        }
+    }
+
+    /** One operation being timed. */
+    static class Span {
+        private final Op op;
+        private final long start;
+        private final SpanEvent event;
+
+        private Span(Op op, SpanEvent event) {
+            this.op = op;
+            this.event = event;
+            this.start = System.nanoTime();
+        }
+    }
+
+    /** Return a Span timing an OP, or null if no one is listening. */
+    static Span start(Op op) {
+        SpanEvent event = JFR ? SpanEvent.open() : null;
+        if (!enabled && event == null) {
+            return null;
+        }
+        return new Span(op, event);
+    }
+
+    /** End SPAN, from start, which moved BYTES. */
+    static void end(Span span, long bytes) {
+        if (span == null) {
+            return;
+        }
+        long nanos = System.nanoTime() - span.start;
+        if (enabled) {
+            LongAdder[] c = COUNTS[span.op.ordinal()];
+            c[0].increment();
+            c[1].add(bytes);
+            c[2].add(nanos);
+        }
+        if (span.event != null) {
+            span.event.close(span.op, bytes);
+        }
+    }
+
+    /** Count one object of KIND decoded. */
+    static void decoded(String kind) {
+        if (enabled) {
+            DECODED.computeIfAbsent(kind, k -> new LongAdder()).increment();
+        }
+    }
+
+    /** Clear the counters and start counting. */
+    static void begin() {
+        for (LongAdder[] c : COUNTS) {
+            for (LongAdder a : c) {
+                a.reset();
+            }
+        }
+        DECODED.clear();
+        began = System.nanoTime();
+        enabled = true;
+    }
+
+    /** Stop counting and return what was counted since begin, for the
+     *  command ARGS, as a line of JSON. */
+    static String finish(String[] args) {
+        enabled = false;
+        StringBuilder out = new StringBuilder("{\"command\":[");
+        for (int i = 0; i < args.length; i++) {
+            out.append(i > 0 ? "," : "").append(quote(args[i]));
+        }
+        out.append("],\"nanos\":").append(System.nanoTime() - began).append(",\"ops\":{");
+        String sep = "";
+        for (Op op : Op.values()) {
+            LongAdder[] c = COUNTS[op.ordinal()];
+            if (c[0].sum() == 0) {
+                continue;
+            }
+            out.append(sep).append(quote(op.label)).append(":{\"calls\":").append(c[0].sum())
+                .append(",\"bytes\":").append(c[1].sum())
+                .append(",\"nanos\":").append(c[2].sum()).append("}");
+            sep = ",";
+        }
+        out.append("},\"decoded\":{");
+        sep = "";
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(DECODED).entrySet()) {
+            out.append(sep).append(quote(e.getKey())).append(":").append(e.getValue().sum());
+            sep = ",";
+        }
+        return out.append("}}").toString();
+    }
+
+    /** Return S as a JSON string. */
+    private static String quote(String s) {
+        StringBuilder out = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < ' ') {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+}
@@ -0,0 +1,193 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Tree objects: one per directory of a commit's files, as in git.  A tree
+ *  maps each name in its directory to a blob id, or, for a subdirectory
+ *  written as "name/", to the id of that directory's tree.  A tree's id is
+ *  the Sha1 of its encoding, so a directory that did not change between
+ *  two commits has the same id in both and is stored once; comparing ids
+ *  is enough to skip it.
+ *
+ *  Encoding: "GTRE", version, entry count, then the entries sorted by
+ *  name, each laid out as in a FileMap (name length, UTF-8 name, 20-byte
+ *  id), so lookups binary search the bytes.
+ *
+ *  @author Luna, Tian
+ */
+class Tree {
+
+    /** Magic number and version of the encoding. */
+    static final int MAGIC = 0x47545245, VERSION = 1;
+
+    /** Length of the header. */
+    private static final int HEADER = 4 + 1 + 4;
+
+    /** Decoded trees kept in CACHE. */
+    private static final int CACHE_SIZE = 4096;
+
+    /** Recently decoded trees by id.  Trees never change, so this serves
+     *  every store. */
+    private static final LinkedHashMap<String, FileMap> CACHE =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FileMap> e) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+    /** Return the entries of tree ID in STORE. */
+    static synchronized FileMap read(ObjectStore store, String id) {
+        FileMap result = CACHE.get(id);
+        if (result == null) {
+            ByteBuffer in = ByteBuffer.wrap(store.read(id));
+            if (in.limit() < HEADER || in.getInt() != MAGIC || in.get() != VERSION) {
+                throw new IllegalArgumentException("not a tree " + id);
+            }
+            result = new FileMap(in, in.getInt());
+            Trace.decoded("Tree");
+            CACHE.put(id, result);
+        }
+        return result;
+    }
+
+    /** Store a tree with ENTRIES in STORE and return its id. */
+    static String write(ObjectStore store, SortedMap<String, String> entries) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, String> e : entries.entrySet()) {
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+                out.write(Utils.fromHex(e.getValue()));
+            }
+            out.close();
+            byte[] encoded = bytes.toByteArray();
+            String id = Utils.sha1(encoded);
+            store.write(id, encoded);
+            return id;
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding tree.");
+        }
+    }
+
+    /** Store the trees for FILES, path to blob id, and return the root's id. */
+    static String write(ObjectStore store, Map<String, String> files) {
+        return update(store, null, new TreeMap<>(files));
+    }
+
+    /** Return the id of the root tree that results from applying CHANGES,
+     *  path to new blob id or null to remove it, to the tree ROOT (null for
+     *  an empty tree).  Only the trees on the paths to CHANGES are
+     *  rewritten; every other subtree keeps its id. */
+    static String update(ObjectStore store, String root, SortedMap<String, String> changes) {
+        String result = updateDir(store, root, changes);
+        return result != null ? result : write(store, new TreeMap<String, String>());
+    }
+
+    /** As for update, but return null if the directory ends up empty. */
+    private static String updateDir(ObjectStore store, String id,
+                                    SortedMap<String, String> changes) {
+        TreeMap<String, String> entries = new TreeMap<>();
+        if (id != null) {
+            entries.putAll(read(store, id));
+        }
+        TreeMap<String, TreeMap<String, String>> subdirs = new TreeMap<>();
+        for (Map.Entry<String, String> c : changes.entrySet()) {
+            String path = c.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                subdirs.computeIfAbsent(path.substring(0, slash + 1), k -> new TreeMap<>())
+                        .put(path.substring(slash + 1), c.getValue());
+            } else if (c.getValue() == null) {
+                entries.remove(path);
+            } else {
+                entries.put(path, c.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> d : subdirs.entrySet()) {
+            String sub = updateDir(store, entries.get(d.getKey()), d.getValue());
+            if (sub == null) {
+                entries.remove(d.getKey());
+            } else {
+                entries.put(d.getKey(), sub);
+            }
+        }
+        if (entries.isEmpty()) {
+            return null;
+        }
+        return write(store, entries);
+    }
+
+    /** Return the blob id of PATH in tree ROOT, or null if it has none. */
+    static String lookup(ObjectStore store, String root, String path) {
+        String id = root;
+        int start = 0;
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', start)) {
+            id = read(store, id).get(path.substring(start, slash + 1));
+            if (id == null) {
+                return null;
+            }
+            start = slash + 1;
+        }
+        return read(store, id).get(path.substring(start));
+    }
+
+    /** Add every file under tree ID to OUT, path to blob id, with PREFIX
+     *  before each path. */
+    static void flatten(ObjectStore store, String id, String prefix, Map<String, String> out) {
+        for (Map.Entry<String, String> e : read(store, id).entrySet()) {
+            if (e.getKey().endsWith("/")) {
+                flatten(store, e.getValue(), prefix + e.getKey(), out);
+            } else {
+                out.put(prefix + e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /** Return the paths of the files that differ between trees A and B,
+     *  added, removed or changed, in sorted order.  Subtrees with the same
+     *  id are not looked at. */
+    static TreeSet<String> diff(ObjectStore store, String a, String b) {
+        TreeSet<String> result = new TreeSet<>();
+        diff(store, a, b, "", result);
+        return result;
+    }
+
+    private static void diff(ObjectStore store, String a, String b, String prefix,
+                             Set<String> out) {
+        if (a != null && a.equals(b)) {
+            return;
+        }
+        Map<String, String> entriesA = a == null ? new TreeMap<>() : read(store, a);
+        Map<String, String> entriesB = b == null ? new TreeMap<>() : read(store, b);
+        TreeSet<String> names = new TreeSet<>(entriesA.keySet());
+        names.addAll(entriesB.keySet());
+        for (String name : names) {
+            String idA = entriesA.get(name);
+            String idB = entriesB.get(name);
+            if (idA != null && idA.equals(idB)) {
+                continue;
+            }
+            if (name.endsWith("/")) {
+                diff(store, idA, idB, prefix + name, out);
+            } else {
+                out.add(prefix + name);
+            }
+        }
+    }
+}
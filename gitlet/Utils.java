@@ -1,7 +1,9 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
@@ -9,8 +11,13 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -36,13 +43,18 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        Trace.Span span = Trace.start(Trace.Op.SHA1);
+        long bytes = 0;
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             for (Object val : vals) {
                 if (val instanceof byte[]) {
                     md.update((byte[]) val);
+                    bytes += ((byte[]) val).length;
                 } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                    byte[] b = ((String) val).getBytes(StandardCharsets.UTF_8);
+                    md.update(b);
+                    bytes += b.length;
                 } else {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
@@ -54,6 +66,8 @@ class Utils {
             return result.toString();
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
+        } finally {
+            Trace.end(span, bytes);
         }
     }
 
@@ -63,6 +77,62 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the SHA-1 hash of the contents of FILE, read in BUFFER_SIZE
+     *  pieces so that files of any size hash in constant memory.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static String sha1Contents(File file) {
+        Trace.Span span = Trace.start(Trace.Op.SHA1);
+        long bytes = 0;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buf = BUFFER.get();
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                md.update(buf, 0, n);
+                bytes += n;
+            }
+            return toHex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        } finally {
+            Trace.end(span, bytes);
+        }
+    }
+
+    /** Returns true iff NAME looks like a full SHA-1 UID. */
+    static boolean isUid(String name) {
+        if (name.length() != UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < UID_LENGTH; i++) {
+            if (Character.digit(name.charAt(i), 16) < 0
+                || Character.isUpperCase(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the lower-case hexadecimal numeral for BYTES. */
+    static String toHex(byte[] bytes) {
+        char[] result = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            result[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+            result[2 * i + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+        }
+        return new String(result);
+    }
+
+    /** Returns the bytes denoted by the hexadecimal numeral HEX. */
+    static byte[] fromHex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -97,10 +167,15 @@ class Utils {
         if (!file.isFile()) {
             throw new IllegalArgumentException("must be a normal file");
         }
+        Trace.Span span = Trace.start(Trace.Op.READ_CONTENTS);
+        byte[] result = null;
         try {
-            return Files.readAllBytes(file.toPath());
+            result = Files.readAllBytes(file.toPath());
+            return result;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            Trace.end(span, result == null ? 0 : result.length);
         }
     }
 
@@ -116,6 +191,8 @@ class Utils {
      *  either a String or a byte array.  Throws IllegalArgumentException
      *  in case of problems. */
     static void writeContents(File file, Object... contents) {
+        Trace.Span span = Trace.start(Trace.Op.WRITE_CONTENTS);
+        long bytes = 0;
         try {
             if (file.isDirectory()) {
                 throw
@@ -124,15 +201,97 @@ class Utils {
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] b = obj instanceof byte[]
+                    ? (byte[]) obj : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(b);
+                bytes += b.length;
             }
             str.close();
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            Trace.end(span, bytes);
+        }
+    }
+
+    /** Size of the buffer used to stream file contents. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** One reusable streaming buffer per thread. */
+    private static final ThreadLocal<byte[]> BUFFER =
+        ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    /** Copy the contents of FROM to TO, creating or overwriting it as needed,
+     *  without reading FROM into memory.  Throws IllegalArgumentException in
+     *  case of problems. */
+    static void copy(File from, File to) {
+        copy(from, 0, to);
+    }
+
+    /** Copy the contents of FROM, less its first SKIP bytes, to TO, creating
+     *  or overwriting it as needed, without reading FROM into memory.
+     *  Throws IllegalArgumentException in case of problems. */
+    static void copy(File from, long skip, File to) {
+        if (!from.isFile() || to.isDirectory()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        try (FileChannel in = FileChannel.open(from.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(to.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            for (long done = skip; done < size; ) {
+                done += in.transferTo(done, size - done, out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Make TO another name for the file FROM, returning false if the file
+     *  system will not (as across devices), so the caller can copy it
+     *  instead.  An existing TO is left alone and counts as linked. */
+    static boolean link(File from, File to) {
+        try {
+            Files.createLink(to.toPath(), from.toPath());
+            return true;
+        } catch (FileAlreadyExistsException excp) {
+            return true;
+        } catch (IOException | UnsupportedOperationException excp) {
+            return false;
+        }
+    }
+
+    /** Force FILE, or the names in FILE if it is a directory, to the disk.
+     *  Platforms that cannot open a directory skip that. */
+    static void fsync(File file) {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException excp) {
+            if (!file.isDirectory()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Copy everything remaining in IN to OUT through the reusable buffer. */
+    static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = BUFFER.get();
+        for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+            out.write(buf, 0, n);
+        }
+    }
+
+    /** Copy exactly the next LENGTH bytes of IN to OUT through the reusable
+     *  buffer, throwing EOFException if IN ends first. */
+    static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buf = BUFFER.get();
+        while (length > 0) {
+            int n = in.read(buf, 0, (int) Math.min(buf.length, length));
+            if (n < 0) {
+                throw new EOFException("unexpected end of stream");
+            }
+            out.write(buf, 0, n);
+            length -= n;
         }
     }
 
@@ -140,15 +299,40 @@ class Utils {
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
+        Trace.Span span = Trace.start(Trace.Op.READ_OBJECT);
         try {
             ObjectInputStream in =
                 new ObjectInputStream(new FileInputStream(file));
             T result = expectedClass.cast(in.readObject());
             in.close();
+            Trace.decoded(expectedClass.getSimpleName());
             return result;
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
             throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            Trace.end(span, file.length());
+        }
+    }
+
+    /** Return an object of type T read from the serialized BYTES, casting
+     *  it to EXPECTEDCLASS.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        Trace.Span span = Trace.start(Trace.Op.READ_OBJECT);
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            Trace.decoded(expectedClass.getSimpleName());
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            Trace.end(span, bytes.length);
         }
     }
 
@@ -172,12 +356,17 @@ class Utils {
      *  lexicographic order as Java Strings.  Returns null if DIR does
      *  not denote a directory. */
     static List<String> plainFilenamesIn(File dir) {
-        String[] files = dir.list(PLAIN_FILES);
-        if (files == null) {
-            return null;
-        } else {
-            Arrays.sort(files);
-            return Arrays.asList(files);
+        Trace.Span span = Trace.start(Trace.Op.LIST);
+        try {
+            String[] files = dir.list(PLAIN_FILES);
+            if (files == null) {
+                return null;
+            } else {
+                Arrays.sort(files);
+                return Arrays.asList(files);
+            }
+        } finally {
+            Trace.end(span, 0);
         }
     }
 
@@ -211,14 +400,17 @@ class Utils {
 
     /** Returns a byte array containing the serialized contents of OBJ. */
     static byte[] serialize(Serializable obj) {
+        Trace.Span span = Trace.start(Trace.Op.WRITE_OBJECT);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
         try {
-            ByteArrayOutputStream stream = new ByteArrayOutputStream();
             ObjectOutputStream objectStream = new ObjectOutputStream(stream);
             objectStream.writeObject(obj);
             objectStream.close();
             return stream.toByteArray();
         } catch (IOException excp) {
             throw error("Internal error serializing commit.");
+        } finally {
+            Trace.end(span, stream.size());
         }
     }
 
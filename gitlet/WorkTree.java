@@ -0,0 +1,89 @@
+package gitlet;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/** One scan of the working directory against a commit and the staging
+ *  area, giving the "Modifications Not Staged For Commit" and "Untracked
+ *  Files" sections of status.  Each directory is listed once, and every
+ *  file is then checked, and hashed through the INDEX if its stat data
+ *  changed, on a fork-join pool with one thread per core.
+ *
+ *  @author Luna, Tian
+ */
+class WorkTree {
+
+    /** Files changed or deleted but not staged, with their "(modified)"
+     *  or "(deleted)" suffix, in sorted order. */
+    final TreeSet<String> modified;
+
+    /** Files neither tracked nor staged, in sorted order. */
+    final TreeSet<String> untracked;
+
+    private WorkTree(Set<String> modified, Set<String> untracked) {
+        this.modified = new TreeSet<>(modified);
+        this.untracked = new TreeSet<>(untracked);
+    }
+
+    /** Scan the working directory of REPO against the files TRACKED by its
+     *  current commit (name to blob id) and the files it has staged. */
+    static WorkTree scan(Repository repo, Map<String, String> tracked) {
+        Set<String> cwd = names(repo.cwd);
+        Map<String, String> staged = new HashMap<>(repo.session().staged());
+        Set<String> removed = new HashSet<>(repo.session().removed());
+        Set<String> all = new HashSet<>(tracked.keySet());
+        all.addAll(cwd);
+        all.addAll(staged.keySet());
+
+        ConcurrentSkipListSet<String> modified = new ConcurrentSkipListSet<>();
+        ConcurrentSkipListSet<String> untracked = new ConcurrentSkipListSet<>();
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            pool.submit(() -> all.parallelStream().forEach(name -> {
+                boolean inCwd = cwd.contains(name);
+                boolean isStaged = staged.containsKey(name);
+                boolean isRemoved = removed.contains(name);
+                String commitSha1 = tracked.get(name);
+                String cwdSha1 = null;
+                if (inCwd && (isStaged || commitSha1 != null)) {
+                    cwdSha1 = repo.fileSha1(Utils.join(repo.cwd, name));
+                }
+                if (commitSha1 != null) {
+                    if (!inCwd && !isRemoved) {
+                        modified.add(name + " (deleted)");
+                    } else if (inCwd && !isStaged && !commitSha1.equals(cwdSha1)) {
+                        modified.add(name + " (modified)");
+                    }
+                }
+                if (isStaged) {
+                    String stagedSha1 = staged.get(name);
+                    if (!inCwd || !cwdSha1.equals(stagedSha1)) {
+                        modified.add(name);
+                    }
+                }
+                if (inCwd && ((commitSha1 == null && !isStaged) || isRemoved)) {
+                    untracked.add(name);
+                }
+            })).get();
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        return new WorkTree(modified, untracked);
+    }
+
+    /** Return the names of the plain files in DIR. */
+    private static Set<String> names(File dir) {
+        List<String> names = Utils.plainFilenamesIn(dir);
+        return names == null ? new HashSet<>() : new HashSet<>(names);
+    }
+}
@@ -1,7 +1,8 @@
-import sys, re
+import sys, re, json
 from subprocess import \
-     check_output, PIPE, STDOUT, DEVNULL, CalledProcessError, TimeoutExpired
+     check_output, Popen, PIPE, STDOUT, DEVNULL, CalledProcessError, TimeoutExpired
 from os.path import abspath, basename, dirname, exists, join, splitext
+from time import sleep
 from getopt import getopt, GetoptError
 from os import chdir, environ, getcwd, mkdir, remove, access, W_OK
 from shutil import copyfile, rmtree
@@ -24,6 +25,10 @@ Usage: python3 tester.py OPTIONS TEST.in ...
        --tolerance=N  Set the maximum allowed edit distance between program
                       output and expected output to N (default 3).
        --verbose      Print extra information about execution.
+       --daemon       Start a gitlet daemon in each directory of a test once
+                      it holds a repository, so that the commands that follow
+                      there are forwarded to it; stop them when the test ends.
+                      The expected output is the same.
 """
 
 USAGE = SHORT_USAGE + """\
@@ -72,6 +77,12 @@ The instructions each have one of the following forms:
    E NAME
           Check that file or directory NAME exists, and report an error if it
           does not.
+   J NAME
+          Check that each line of the file NAME is a JSON object, and report
+          an error if not.
+   V VAR "VALUE"
+          Set the environment variable VAR to VALUE for the commands that
+          follow in this test, or unset it if VALUE is empty.
    D VAR "VALUE"
           Defines the variable VAR to have the literal value VALUE.  VALUE is
           taken to be a raw Python string (as in r"VALUE").  Substitutions are
@@ -156,6 +167,37 @@ def doCopy(dest, src, dir):
     except OSError:
         raise ValueError("file {} could not be copied to {}".format(src, dest))
 
+def jsonLines(name, dir):
+    text = contents(join(dir, name))
+    if text is None:
+        return False
+    try:
+        return all(type(json.loads(L)) is dict for L in text.splitlines() if L.strip())
+    except ValueError:
+        return False
+
+def startDaemon(dir):
+    proc = Popen("{} {} daemon".format(JAVA_COMMAND, GITLET_CLASS), shell=True,
+                 cwd=dir, stdin=DEVNULL, stdout=DEVNULL, stderr=DEVNULL)
+    sock = join(dir, ".gitlet", "daemon.sock")
+    for n in range(200):
+        if exists(sock):
+            return proc
+        if proc.poll() is not None:
+            break
+        sleep(0.05)
+    proc.kill()
+    raise ValueError("could not start a daemon in {}".format(dir))
+
+def stopDaemon(dir, proc):
+    try:
+        check_output("{} {} daemon stop".format(JAVA_COMMAND, GITLET_CLASS),
+                     shell=True, cwd=dir, stdin=DEVNULL, stderr=STDOUT,
+                     timeout=TIMEOUT)
+        proc.wait(timeout=TIMEOUT)
+    except (CalledProcessError, TimeoutExpired):
+        proc.kill()
+
 def doExecute(cmnd, dir, timeout, line_num):
     here = getcwd()
     out = ""
@@ -281,6 +323,8 @@ def doTest(test):
 
     timeout = TIMEOUT
     defns = {}
+    env_set = set()
+    daemons = {}
 
     def do_substs(L):
         c = 0
@@ -351,6 +395,9 @@ def doTest(test):
                         is_regexp = Group(1)
                         break
                     expected.append(do_substs(L))
+                if daemon and cdir not in daemons \
+                   and exists(join(cdir, ".gitlet")):
+                    daemons[cdir] = startDaemon(cdir)
                 msg, out = doExecute(cmnd, cdir, timeout, line_num)
                 if verbose:
                     if out:
@@ -380,11 +427,26 @@ def doTest(test):
                           .format(Group(1)))
                     reportDetails(test, included_files, line_num)
                     return False
+            elif Match(r'J\s*(\S+)', line):
+                if not jsonLines(Group(1), cdir):
+                    print("ERROR (file {} is not JSON lines)".format(Group(1)))
+                    reportDetails(test, included_files, line_num)
+                    return False
+            elif Match(r'V\s*([a-zA-Z_][a-zA-Z_0-9]*)\s*"(.*)"\s*$', line):
+                env_set.add(Group(1))
+                if Group(2) == "":
+                    environ.pop(Group(1), None)
+                else:
+                    environ[Group(1)] = Group(2)
             elif Match(r'(?s)D\s*([a-zA-Z_][a-zA-Z_0-9]*)\s*"(.*)"\s*$', line):
                 defns[Group(1)] = Group(2)
             else:
                 raise ValueError("bad test line at {}".format(line_num))
     finally:
+        for dir, proc in daemons.items():
+            stopDaemon(dir, proc)
+        for name in env_set:
+            environ.pop(name, None)
         if not keep:
             cleanTempDir(tmpdir)
 
@@ -393,6 +455,7 @@ if __name__ == "__main__":
     keep = False
     prog_dir = None
     verbose = False
+    daemon = False
     src_dir = 'src'
     output_tolerance = 3
 
@@ -400,7 +463,7 @@ if __name__ == "__main__":
         opts, files = \
             getopt(sys.argv[1:], '',
                    ['show=', 'keep', 'progdir=', 'verbose', 'src=',
-                    'tolerance=', 'debug'])
+                    'tolerance=', 'debug', 'daemon'])
         for opt, val in opts:
             if opt == '--show':
                 val = val.lower()
@@ -422,6 +485,8 @@ if __name__ == "__main__":
                 output_tolerance = int(val)
             elif opt == "--debug":
                 DEBUG = True
+            elif opt == "--daemon":
+                daemon = True
         if prog_dir is None:
             prog_dir = abspath(getcwd())
             k = 10